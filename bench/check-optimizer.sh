@@ -0,0 +1,33 @@
+#!/bin/sh
+# runs every benchmark program under each optimizer flag and compares what it prints with the plain run; an
+# optimization that changes a program's output is a bug. takes the interpreter's classpath, by default the classes
+# of "mvn compile". --memoize turns --flat off, so it is not run with --flat
+#
+#   bench/check-optimizer.sh [classpath]
+
+cd "$(dirname "$0")/.." || exit 2
+classpath=${1:-interpreter/target/classes}
+
+failed=0
+expected=$(mktemp)
+actual=$(mktemp)
+trap 'rm -f "$expected" "$actual"' EXIT
+
+for program in bench/programs/*.lox; do
+
+    java -cp "$classpath" lox.Lox "$program" > "$expected" 2>&1
+
+    for flags in "--optimize" "--memoize" "--optimize --memoize" "--flat" "--optimize --flat"; do
+        # shellcheck disable=SC2086
+        java -cp "$classpath" lox.Lox $flags "$program" > "$actual" 2>&1
+        if ! cmp -s "$expected" "$actual"; then
+            echo "FAIL $program with $flags"
+            diff "$expected" "$actual" | head -n 10
+            failed=1
+        fi
+    done
+
+done
+
+[ $failed -eq 0 ] && echo "all programs print the same under every optimizer flag"
+exit $failed
@@ -0,0 +1,24 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// the main class of benchmarks.jar: JMH's own, with the allocation profiler on unless the arguments pick profilers.
+// any JMH option works, e.g. "java -jar bench/target/benchmarks.jar PipelineBenchmark.interpret -p corpus=LARGE";
+// add "-jvmArgsAppend -Dlox.dispatch=visitor" to measure the interpreter's visitor dispatch instead of the switch
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception{
+
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof")){
+            options.add("-prof");
+            options.add("gc");
+        }
+
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+
+    }
+
+}
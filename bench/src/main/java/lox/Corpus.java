@@ -0,0 +1,102 @@
+package lox;
+
+import java.util.Random;
+
+// generated Lox programs for the benchmarks, from a fixed seed so every run measures the same source. a program is
+// a run of units picked at random: functions with loops, classes with a subclass and super calls, string work,
+// closures and comments, each followed by the top-level code that uses it, so the program does some of everything
+// when it runs. it prints nothing. the scanner does not handle fractions or identifiers starting with 'o', so
+// neither appears. public because the code JMH generates for the corpus parameter is in another package
+public enum Corpus {
+
+    SMALL(4 * 1024),
+    MEDIUM(256 * 1024),
+    LARGE(4 * 1024 * 1024);
+
+    // the source is at least this many characters
+    final int size;
+
+    private String source = null;
+
+    Corpus(int size){
+        this.size = size;
+    }
+
+    synchronized String source(){
+        if (source == null) source = generate(size);
+        return source;
+    }
+
+    private static String generate(int size){
+
+        Random random = new Random(42);
+        StringBuilder source = new StringBuilder(size + 1024);
+
+        for (int i = 0; source.length() < size; i++){
+
+            switch (random.nextInt(5)) {
+
+                case 0:
+                    source.append("fun f").append(i).append("(a, b) {\n")
+                        .append("  var t = a;\n")
+                        .append("  var i = 0;\n")
+                        .append("  while (i < ").append(5 + random.nextInt(10)).append(") {\n")
+                        .append("    t = t + b * i;\n")
+                        .append("    if (t > 1000) t = t - 1000;\n")
+                        .append("    i = i + 1;\n")
+                        .append("  }\n")
+                        .append("  return t;\n")
+                        .append("}\n")
+                        .append("var r").append(i).append(" = f").append(i).append("(").append(i).append(", ")
+                        .append(random.nextInt(100)).append(");\n");
+                    break;
+
+                case 1:
+                    source.append("class Shape").append(i).append(" {\n")
+                        .append("  init(w, h) { this.w = w; this.h = h; }\n")
+                        .append("  area() { return this.w * this.h; }\n")
+                        .append("}\n")
+                        .append("class Square").append(i).append(" < Shape").append(i).append(" {\n")
+                        .append("  init(s) { super.init(s, s); }\n")
+                        .append("  area() { return super.area() + ").append(random.nextInt(10)).append("; }\n")
+                        .append("}\n")
+                        .append("var s").append(i).append(" = Square").append(i).append("(").append(random.nextInt(50))
+                        .append(");\n")
+                        .append("var a").append(i).append(" = s").append(i).append(".area();\n");
+                    break;
+
+                case 2:
+                    source.append("var str").append(i).append(" = \"item\" + \"_").append(i).append("\";\n")
+                        .append("if (str").append(i).append(" == \"item_0\") {\n")
+                        .append("  str").append(i).append(" = \"first\";\n")
+                        .append("} else {\n")
+                        .append("  str").append(i).append(" = str").append(i).append(" + \"!\";\n")
+                        .append("}\n");
+                    break;
+
+                case 3:
+                    source.append("fun make").append(i).append("() {\n")
+                        .append("  var count = 0;\n")
+                        .append("  fun increment() { count = count + 1; return count; }\n")
+                        .append("  return increment;\n")
+                        .append("}\n")
+                        .append("var k").append(i).append(" = make").append(i).append("();\n")
+                        .append("k").append(i).append("();\n")
+                        .append("k").append(i).append("();\n");
+                    break;
+
+                default:
+                    source.append("// unit ").append(i).append(": a line comment, then a block comment\n")
+                        .append("/* the block comment\n   spans two lines */\n")
+                        .append("var n").append(i).append(" = !(").append(random.nextInt(10)).append(" >= 5) and true;\n");
+                    break;
+
+            }
+
+        }
+
+        return source.toString();
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one benchmark per phase of the pipeline, each on the same corpora. every phase starts from the output of the
+// phases before it, prepared in setup, so only the phase itself is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Corpus corpus;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    // interpret runs on a fresh interpreter each time, so globals from the last run do not carry over
+    private Interpreter interpreter;
+
+    @Setup(Level.Trial)
+    public void compile(){
+
+        source = corpus.source();
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens, 0, tokens.size() - 1, false, false).parse();
+
+        if (Lox.hadError) throw new IllegalStateException("The " + corpus + " corpus does not compile.");
+
+    }
+
+    @Setup(Level.Invocation)
+    public void resolveForInterpret(){
+        interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+    }
+
+    @Benchmark
+    public List<Token> scan(){
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse(){
+        return new Parser(tokens, 0, tokens.size() - 1, false, false).parse();
+    }
+
+    // into a map of its own, like the parallel resolver, so that no interpreter is involved
+    @Benchmark
+    public Map<Expr, Integer> resolve(){
+        Map<Expr, Integer> locals = new HashMap<>();
+        new Resolver(locals).resolve(statements);
+        return locals;
+    }
+
+    @Benchmark
+    public Interpreter interpret(){
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+}
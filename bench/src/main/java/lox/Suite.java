@@ -0,0 +1,237 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// runs the Lox programs in bench/programs through Lox.main, in this JVM so that the interpreter is warmed up like a
+// long-running one, and times every run. the median of each program can be written to a JSON file and compared with
+// one written earlier: a program whose median is slower than the baseline's by more than the threshold fails the
+// suite (exit status 1). options:
+//
+//   --programs <directory>   where the .lox files are (bench/programs)
+//   --warmup <n>             untimed runs of each program first (3)
+//   --runs <n>               timed runs of each program (5)
+//   --json <file>            write the results there
+//   --baseline <file>        compare with results written by --json
+//   --threshold <fraction>   how much slower than the baseline a median may be (0.10)
+//   <name> ...               only the programs with these names
+//   -- <jlox options> ...    passed to Lox.main before the script, e.g. "-- --flat"
+//
+// e.g. java -cp bench/target/benchmarks.jar lox.Suite --baseline baseline.json --json latest.json
+public class Suite {
+
+    private static class Result {
+
+        final String name;
+        final double[] runs;
+
+        Result(String name, double[] runs){
+            this.name = name;
+            this.runs = runs;
+        }
+
+        double median(){
+            double[] sorted = runs.clone();
+            Arrays.sort(sorted);
+            int middle = sorted.length / 2;
+            return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+        }
+
+        double min(){
+            return Arrays.stream(runs).min().orElse(0);
+        }
+
+        double max(){
+            return Arrays.stream(runs).max().orElse(0);
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException{
+
+        Path programs = Paths.get("bench", "programs");
+        int warmup = 3;
+        int runs = 5;
+        Path json = null;
+        Path baseline = null;
+        double threshold = 0.10;
+        List<String> names = new ArrayList<>();
+        List<String> loxOptions = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if (arg.equals("--")){
+                loxOptions.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                break;
+            }else if (arg.equals("--programs") && i + 1 < args.length){
+                programs = Paths.get(args[++i]);
+            }else if (arg.equals("--warmup") && i + 1 < args.length){
+                warmup = Integer.parseInt(args[++i]);
+            }else if (arg.equals("--runs") && i + 1 < args.length){
+                runs = Integer.parseInt(args[++i]);
+            }else if (arg.equals("--json") && i + 1 < args.length){
+                json = Paths.get(args[++i]);
+            }else if (arg.equals("--baseline") && i + 1 < args.length){
+                baseline = Paths.get(args[++i]);
+            }else if (arg.equals("--threshold") && i + 1 < args.length){
+                threshold = Double.parseDouble(args[++i]);
+            }else if (arg.startsWith("--")){
+                usage();
+            }else{
+                names.add(arg);
+            }
+        }
+
+        if (runs < 1) usage();
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(programs)){
+            scripts = files.filter(file -> file.toString().endsWith(".lox"))
+                .filter(file -> names.isEmpty() || names.contains(name(file)))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Path script : scripts){
+            results.add(measure(script, loxOptions, warmup, runs));
+        }
+
+        Map<String, Double> previous = baseline == null ? new HashMap<>() : readMedians(baseline);
+        boolean regressed = false;
+
+        System.out.println(String.format(Locale.ROOT, "%-20s %12s %12s %12s %12s", "program", "median ms", "min ms", "max ms", "baseline"));
+
+        for (Result result : results){
+
+            String comparison = "";
+            Double before = previous.get(result.name);
+
+            if (before != null){
+                double change = result.median() / before - 1;
+                comparison = String.format(Locale.ROOT, "%+.1f%%", 100 * change);
+                if (change > threshold){
+                    comparison += " REGRESSED";
+                    regressed = true;
+                }
+            }else if (baseline != null){
+                comparison = "new";
+            }
+
+            System.out.println(String.format(Locale.ROOT, "%-20s %12.1f %12.1f %12.1f %12s",
+                result.name, result.median(), result.min(), result.max(), comparison));
+
+        }
+
+        if (json != null) Files.write(json, toJson(results, loxOptions, warmup).getBytes(StandardCharsets.UTF_8));
+
+        if (regressed){
+            System.out.println("Slower than the baseline by more than " + Math.round(threshold * 100) + "%.");
+            System.exit(1);
+        }
+
+    }
+
+    private static void usage(){
+        System.out.println("Usage: Suite [--programs <directory>] [--warmup <n>] [--runs <n>] [--json <file>]");
+        System.out.println("             [--baseline <file>] [--threshold <fraction>] [<name> ...] [-- <jlox options>]");
+        System.exit(64);
+    }
+
+    private static String name(Path script){
+        String file = script.getFileName().toString();
+        return file.substring(0, file.length() - ".lox".length());
+    }
+
+    // the programs print their results; that output is thrown away so that it is not part of what is timed
+    private static Result measure(Path script, List<String> loxOptions, int warmup, int runs) throws IOException{
+
+        List<String> arguments = new ArrayList<>(loxOptions);
+        arguments.add(script.toString());
+        String[] args = arguments.toArray(new String[0]);
+
+        PrintStream out = System.out;
+        double[] times = new double[runs];
+
+        try{
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            for (int i = 0; i < warmup; i++){
+                Lox.main(args);
+            }
+
+            for (int i = 0; i < runs; i++){
+                long start = System.nanoTime();
+                Lox.main(args);
+                times[i] = (System.nanoTime() - start) / 1e6;
+            }
+
+        }finally{
+            System.setOut(out);
+        }
+
+        return new Result(name(script), times);
+
+    }
+
+    // one result per line, so that readMedians can find them without a JSON parser
+    private static String toJson(List<Result> results, List<String> loxOptions, int warmup){
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"options\": [")
+            .append(loxOptions.stream().map(option -> "\"" + option + "\"").collect(Collectors.joining(", ")))
+            .append("],\n");
+        json.append("  \"warmup\": ").append(warmup).append(",\n");
+        json.append("  \"results\": [\n");
+
+        for (int i = 0; i < results.size(); i++){
+
+            Result result = results.get(i);
+            String runs = Arrays.stream(result.runs)
+                .mapToObj(run -> String.format(Locale.ROOT, "%.3f", run))
+                .collect(Collectors.joining(", "));
+
+            json.append(String.format(Locale.ROOT, "    {\"name\": \"%s\", \"median\": %.3f, \"min\": %.3f, \"max\": %.3f, \"runs\": [%s]}",
+                result.name, result.median(), result.min(), result.max(), runs));
+            json.append(i + 1 < results.size() ? ",\n" : "\n");
+
+        }
+
+        json.append("  ]\n");
+        json.append("}\n");
+        return json.toString();
+
+    }
+
+    private static final Pattern RESULT = Pattern.compile("\"name\": \"([^\"]+)\", \"median\": ([0-9.eE+-]+)");
+
+    private static Map<String, Double> readMedians(Path file) throws IOException{
+
+        Map<String, Double> medians = new HashMap<>();
+        Matcher matcher = RESULT.matcher(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        while (matcher.find()){
+            medians.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+
+        return medians;
+
+    }
+
+}
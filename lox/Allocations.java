@@ -0,0 +1,102 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// the allocation tracking of --allocations: counts the objects the interpreter allocates for the program
+// (environments, instances, bound methods, the numbers arithmetic boxes and the strings "+" concatenates) by the
+// line of the statement that was running when they were made. a call's environment is counted at the statement of
+// the call, as is the instance a class call creates. the counts are kept in arrays indexed by line, so counting an
+// allocation makes none. only the tree interpreter keeps the current line, so --flat is ignored while tracking
+class Allocations {
+
+    static boolean active = false;
+
+    static final int ENVIRONMENT = 0;
+    static final int INSTANCE = 1;
+    static final int BOUND_METHOD = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private static final String[] KINDS = {"environments", "instances", "bound methods", "numbers", "strings"};
+
+    // how many lines the report lists
+    private static final int REPORTED = 25;
+
+    // the line of the statement running now; 0 when unknown, e.g. for the globals
+    private static int line = 0;
+
+    // counts[line][kind]
+    private static long[][] counts = new long[64][KINDS.length];
+
+    // the line of each statement that has run, found the first time it runs
+    private static final Map<Stmt, Integer> lines = new IdentityHashMap<>();
+
+    static void record(int kind){
+        if (line >= counts.length) counts = Arrays.copyOf(counts, Math.max(line + 1, counts.length * 2));
+        if (counts[line] == null) counts[line] = new long[KINDS.length];
+        counts[line][kind]++;
+    }
+
+    // makes stmt the running statement; returns the one to restore with leave when it is done
+    static int enter(Stmt stmt){
+        int previous = line;
+        line = lines.computeIfAbsent(stmt, Lines::of);
+        return previous;
+    }
+
+    static void leave(int previous){
+        line = previous;
+    }
+
+    // the lines that allocated the most, with their source
+    static String report(String source){
+
+        String[] text = source.split("\r?\n", -1);
+
+        List<Integer> allocating = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++){
+            if (counts[i] != null && total(i) > 0) allocating.add(i);
+        }
+
+        allocating.sort((a, b) -> Long.compare(total(b), total(a)));
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-8s", "line"));
+        for (String kind : KINDS){
+            out.append(String.format(" %14s", kind));
+        }
+        out.append(String.format(" %14s  %s%n", "total", "source"));
+
+        for (int i : allocating.subList(0, Math.min(REPORTED, allocating.size()))){
+
+            out.append(String.format("%-8s", i == 0 ? "-" : Integer.toString(i)));
+            for (long count : counts[i]){
+                out.append(String.format(" %14d", count));
+            }
+
+            String code = i > 0 && i <= text.length ? text[i - 1].trim() : "";
+            out.append(String.format(" %14d  %s%n", total(i), code));
+
+        }
+
+        if (allocating.size() > REPORTED){
+            out.append("(").append(allocating.size() - REPORTED).append(" more lines)").append(System.lineSeparator());
+        }
+
+        return out.toString();
+
+    }
+
+    private static long total(int line){
+        long total = 0;
+        for (long count : counts[line]){
+            total += count;
+        }
+        return total;
+    }
+
+}
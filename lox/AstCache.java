@@ -0,0 +1,568 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// binary cache of resolved syntax trees. a script's tree is stored in .loxcache/<sha-256 of the source>.loxc next to
+// the script together with the resolver's depths, so an unchanged script can skip the scanner, parser and resolver.
+//
+// file layout: "LOXC", format version, the 32 byte source hash, then the statements in pre-order. every node starts
+// with a kind byte (0 for a missing optional node), tokens are type, lexeme, literal and packed position (see
+// Token.pack), variable-like expressions carry their depth + 1 (0 for globals) and all numbers are varints. strings
+// are written once and then referred to by index.
+class AstCache {
+
+    // bump whenever the layout or the AST changes; files written by another version are ignored
+    static final int FORMAT_VERSION = 3;
+
+    private static final byte[] MAGIC = {'L', 'O', 'X', 'C'};
+
+    static final String DIRECTORY = ".loxcache";
+
+    // expression kinds
+    private static final int ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, GROUPING = 5, LITERAL = 6,
+        LOGICAL = 7, SET = 8, SUPER = 9, THIS = 10, UNARY = 11, VARIABLE = 12;
+
+    // statement kinds
+    private static final int BLOCK = 1, CLASS = 2, EXPRESSION = 3, FUNCTION = 4, IF = 5, PRINT = 6,
+        RETURN = 7, VAR = 8, WHILE = 9;
+
+    // literal tags
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    // the cache file for a script with the given source
+    static Path fileFor(Path script, String source){
+        Path directory = script.toAbsolutePath().getParent().resolve(DIRECTORY);
+        return directory.resolve(hex(hash(source)) + ".loxc");
+    }
+
+    // returns the cached statements for source and registers their depths with the interpreter, or null if there is
+    // no usable cache file
+    static List<Stmt> load(Path file, String source, Interpreter interpreter){
+
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Reader(buffer, interpreter).read(hash(source));
+
+        } catch (IOException | RuntimeException error){
+            // an unreadable or truncated cache is treated as missing; the caller recompiles and rewrites it
+            return null;
+        }
+
+    }
+
+    // writes the resolved statements for source; a failure only costs the next run a recompile
+    static void store(Path file, String source, List<Stmt> statements, Interpreter interpreter){
+
+        try{
+
+            byte[] bytes = new Writer(interpreter).write(hash(source), statements);
+
+            Files.createDirectories(file.getParent());
+            Path temporary = Files.createTempFile(file.getParent(), "lox", ".tmp");
+            Files.write(temporary, bytes);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException error){
+            System.err.println("Could not write AST cache " + file + ": " + error.getMessage());
+        }
+
+    }
+
+    private static byte[] hash(String source){
+        try{
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException error){
+            // every Java platform is required to provide SHA-256
+            throw new AssertionError(error);
+        }
+    }
+
+    private static String hex(byte[] bytes){
+        StringBuilder text = new StringBuilder();
+        for (byte b : bytes){
+            text.append(String.format("%02x", b));
+        }
+        return text.toString();
+    }
+
+
+    // Writing ------------------------------------------------------------------------------------------------------
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        private final Interpreter interpreter;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(Interpreter interpreter){
+            this.interpreter = interpreter;
+        }
+
+        byte[] write(byte[] hash, List<Stmt> statements){
+
+            out.write(MAGIC, 0, MAGIC.length);
+            writeInt(FORMAT_VERSION);
+            out.write(hash, 0, hash.length);
+
+            statements(statements);
+            return out.toByteArray();
+
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt){
+            writeInt(BLOCK);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt){
+            writeInt(CLASS);
+            token(stmt.name);
+            expression(stmt.superclass);
+            writeInt(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods){
+                statement(method);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt){
+            writeInt(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt){
+            writeInt(FUNCTION);
+            token(stmt.name);
+            writeInt(stmt.params.size());
+            for (Token param : stmt.params){
+                token(param);
+            }
+            statements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt){
+            writeInt(IF);
+            expression(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt){
+            writeInt(PRINT);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt){
+            writeInt(RETURN);
+            token(stmt.keyword);
+            expression(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt){
+            writeInt(VAR);
+            token(stmt.name);
+            expression(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt){
+            writeInt(WHILE);
+            expression(stmt.condition);
+            statement(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr){
+            writeInt(ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            depth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr){
+            writeInt(BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr){
+            writeInt(CALL);
+            expression(expr.callee);
+            token(expr.paren);
+            writeInt(expr.arguments.size());
+            for (Expr argument : expr.arguments){
+                expression(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr){
+            writeInt(GET);
+            expression(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr){
+            writeInt(GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr){
+            writeInt(LITERAL);
+            token(expr.token);
+            literal(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr){
+            writeInt(LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr){
+            writeInt(SET);
+            expression(expr.object);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr){
+            writeInt(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            depth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr){
+            writeInt(THIS);
+            token(expr.keyword);
+            depth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr){
+            writeInt(UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr){
+            writeInt(VARIABLE);
+            token(expr.name);
+            depth(expr);
+            return null;
+        }
+
+        private void statements(List<Stmt> statements){
+            writeInt(statements.size());
+            for (Stmt statement : statements){
+                statement(statement);
+            }
+        }
+
+        private void statement(Stmt stmt){
+            if (stmt == null){
+                writeInt(0);
+            }else{
+                stmt.accept(this);
+            }
+        }
+
+        private void expression(Expr expr){
+            if (expr == null){
+                writeInt(0);
+            }else{
+                expr.accept(this);
+            }
+        }
+
+        private void depth(Expr expr){
+            Integer depth = interpreter.depth(expr);
+            writeInt(depth == null ? 0 : depth + 1);
+        }
+
+        private void token(Token token){
+            writeInt(token.type.ordinal());
+            string(token.lexeme);
+            literal(token.literal);
+            writeInt(token.position());
+        }
+
+        private void literal(Object value){
+            if (value == null){
+                writeInt(NIL);
+            }else if (value instanceof Boolean){
+                writeInt((Boolean) value ? TRUE : FALSE);
+            }else if (value instanceof Double){
+                writeInt(NUMBER);
+                long bits = Double.doubleToRawLongBits((Double) value);
+                for (int shift = 56; shift >= 0; shift -= 8){
+                    out.write((int) (bits >>> shift));
+                }
+            }else{
+                writeInt(STRING);
+                string((String) value);
+            }
+        }
+
+        // a string already written is referred to by its index + 1; 0 introduces a new one
+        private void string(String text){
+
+            Integer index = strings.get(text);
+            if (index != null){
+                writeInt(index + 1);
+                return;
+            }
+
+            strings.put(text, strings.size());
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeInt(0);
+            writeInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+
+        }
+
+        // unsigned LEB128
+        private void writeInt(int value){
+            while ((value & ~0x7f) != 0){
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+    }
+
+
+    // Reading ------------------------------------------------------------------------------------------------------
+
+    private static class Reader {
+
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final ByteBuffer in;
+        private final Interpreter interpreter;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer in, Interpreter interpreter){
+            this.in = in;
+            this.interpreter = interpreter;
+        }
+
+        // returns null when the file was written by another format version or for another source
+        List<Stmt> read(byte[] hash){
+
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || readInt() != FORMAT_VERSION) return null;
+
+            byte[] stored = new byte[hash.length];
+            in.get(stored);
+            if (!Arrays.equals(stored, hash)) return null;
+
+            // depths are only handed to the interpreter once the whole file has been read successfully
+            Map<Expr, Integer> locals = new HashMap<>();
+            List<Stmt> statements = statements(locals);
+            if (in.hasRemaining()) throw new IllegalStateException("Trailing bytes in AST cache.");
+
+            interpreter.resolveAll(locals);
+            return statements;
+
+        }
+
+        private List<Stmt> statements(Map<Expr, Integer> locals){
+            int count = readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++){
+                statements.add(statement(locals));
+            }
+            return statements;
+        }
+
+        private Stmt statement(Map<Expr, Integer> locals){
+
+            int kind = readInt();
+
+            switch (kind) {
+
+                case 0: return null;
+                case BLOCK: return new Stmt.Block(statements(locals));
+                case CLASS: {
+                    Token name = token();
+                    Expr.Variable superclass = (Expr.Variable) expression(locals);
+                    int count = readInt();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++){
+                        methods.add((Stmt.Function) statement(locals));
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case EXPRESSION: return new Stmt.Expression(expression(locals));
+                case FUNCTION: {
+                    Token name = token();
+                    int count = readInt();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++){
+                        params.add(token());
+                    }
+                    return new Stmt.Function(name, params, statements(locals));
+                }
+                case IF: return new Stmt.If(expression(locals), statement(locals), statement(locals));
+                case PRINT: return new Stmt.Print(expression(locals));
+                case RETURN: return new Stmt.Return(token(), expression(locals));
+                case VAR: return new Stmt.Var(token(), expression(locals));
+                case WHILE: return new Stmt.While(expression(locals), statement(locals));
+
+            }
+
+            throw new IllegalStateException("Unknown statement kind " + kind + " in AST cache.");
+
+        }
+
+        private Expr expression(Map<Expr, Integer> locals){
+
+            int kind = readInt();
+
+            switch (kind) {
+
+                case 0: return null;
+                case ASSIGN: return depth(new Expr.Assign(token(), expression(locals)), locals);
+                case BINARY: return new Expr.Binary(expression(locals), token(), expression(locals));
+                case CALL: {
+                    Expr callee = expression(locals);
+                    Token paren = token();
+                    int count = readInt();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++){
+                        arguments.add(expression(locals));
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case GET: return new Expr.Get(expression(locals), token());
+                case GROUPING: return new Expr.Grouping(expression(locals));
+                case LITERAL: return new Expr.Literal(token(), literal());
+                case LOGICAL: return new Expr.Logical(expression(locals), token(), expression(locals));
+                case SET: return new Expr.Set(expression(locals), token(), expression(locals));
+                case SUPER: return depth(new Expr.Super(token(), token()), locals);
+                case THIS: return depth(new Expr.This(token()), locals);
+                case UNARY: return new Expr.Unary(token(), expression(locals));
+                case VARIABLE: return depth(new Expr.Variable(token()), locals);
+
+            }
+
+            throw new IllegalStateException("Unknown expression kind " + kind + " in AST cache.");
+
+        }
+
+        private Expr depth(Expr expr, Map<Expr, Integer> locals){
+            int depth = readInt();
+            if (depth != 0) locals.put(expr, depth - 1);
+            return expr;
+        }
+
+        private Token token(){
+            TokenType type = TYPES[readInt()];
+            String lexeme = string();
+            Object literal = literal();
+            int position = readInt();
+            return new Token(type, lexeme, literal, Token.line(position), Token.column(position));
+        }
+
+        private Object literal(){
+
+            int tag = readInt();
+
+            switch (tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return Double.longBitsToDouble(in.getLong());
+                case STRING: return string();
+            }
+
+            throw new IllegalStateException("Unknown literal tag " + tag + " in AST cache.");
+
+        }
+
+        private String string(){
+
+            int index = readInt();
+            if (index != 0) return strings.get(index - 1);
+
+            byte[] bytes = new byte[readInt()];
+            in.get(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(text);
+            return text;
+
+        }
+
+        private int readInt(){
+            int value = 0;
+            for (int shift = 0; ; shift += 7){
+                byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// the heap census of --census: walks the Lox values reachable from the globals and from the environments of the
+// code running now, and sums them up by kind: the instances of each class, the closures of each function (with the
+// environments they captured), classes, environments, strings and numbers. sizes are estimates of what the JVM uses
+// for each object with compressed pointers, maps included. an object's retained size is its own plus that of
+// everything first reached through it, walking breadth first from the roots; it is what would be freed with it
+// when nothing else points there, which makes it an estimate too. the retained size of a kind counts each object
+// once, however many objects of that kind it is under (the cells of a linked list, say)
+class Census {
+
+    private static final int HEADER = 12;
+    private static final int POINTER = 4;
+
+    // one object reached
+    private static class Node {
+
+        final int id;
+        final Object value;
+        final String kind;
+        final long shallow;
+
+        // the node this one was first reached through; null for a root
+        final Node owner;
+
+        long retained;
+
+        // the kinds of this node and of the nodes it was reached through
+        Set<String> within;
+
+        Node(int id, Object value, String kind, long shallow, Node owner){
+            this.id = id;
+            this.value = value;
+            this.kind = kind;
+            this.shallow = shallow;
+            this.owner = owner;
+            this.retained = shallow;
+        }
+
+    }
+
+    // one row of the histogram
+    private static class Row {
+        long count = 0;
+        long shallow = 0;
+        long retained = 0;
+    }
+
+    private final Map<Object, Node> reached = new IdentityHashMap<>();
+    private final List<Node> order = new ArrayList<>();
+
+    // takes the census of what roots reach
+    Census(List<Environment> roots){
+
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        for (Environment root : roots){
+            reach(root, null, queue);
+        }
+
+        while (!queue.isEmpty()){
+            Node node = queue.poll();
+            for (Object child : children(node.value)){
+                reach(child, node, queue);
+            }
+        }
+
+        // every owner was reached before what it owns, so going backwards gives each its subtree
+        for (int i = order.size() - 1; i >= 0; i--){
+            Node node = order.get(i);
+            if (node.owner != null) node.owner.retained += node.retained;
+        }
+
+        // and going forwards gives each the kinds above it; a node shares its owner's set when it adds nothing
+        for (Node node : order){
+            if (node.owner != null && node.owner.within.contains(node.kind)){
+                node.within = node.owner.within;
+            }else{
+                node.within = new HashSet<>(node.owner == null ? Set.of() : node.owner.within);
+                node.within.add(node.kind);
+            }
+        }
+
+    }
+
+    private void reach(Object value, Node owner, ArrayDeque<Node> queue){
+
+        // nil and the booleans are shared constants that are never freed
+        if (value == null || value instanceof Boolean || reached.containsKey(value)) return;
+
+        Node node = new Node(order.size(), value, kind(value), shallow(value), owner);
+        reached.put(value, node);
+        order.add(node);
+        queue.add(node);
+
+    }
+
+    private static String kind(Object value){
+        if (value instanceof Environment) return "environment";
+        if (value instanceof LoxInstance) return "instance " + ((LoxInstance) value).klass().name;
+        if (value instanceof LoxFunction) return "closure " + ((LoxFunction) value).name();
+        if (value instanceof LoxClass) return "class " + ((LoxClass) value).name;
+        if (value instanceof String) return "string";
+        if (value instanceof Double) return "number";
+        return "native";
+    }
+
+    private static Collection<?> children(Object value){
+
+        List<Object> children = new ArrayList<>();
+
+        if (value instanceof Environment){
+            Environment environment = (Environment) value;
+            children.addAll(environment.values().values());
+            if (environment.enclosing != null) children.add(environment.enclosing);
+        }else if (value instanceof LoxInstance){
+            LoxInstance instance = (LoxInstance) value;
+            children.add(instance.klass());
+            children.addAll(instance.fields().values());
+        }else if (value instanceof LoxFunction){
+            children.add(((LoxFunction) value).closure());
+        }else if (value instanceof LoxClass){
+            LoxClass klass = (LoxClass) value;
+            children.addAll(klass.methods());
+            if (klass.superclass != null) children.add(klass.superclass);
+        }
+
+        return children;
+
+    }
+
+    private static long shallow(Object value){
+        if (value instanceof Environment) return align(HEADER + 2 * POINTER) + map(((Environment) value).values());
+        if (value instanceof LoxInstance) return align(HEADER + 2 * POINTER) + map(((LoxInstance) value).fields());
+        if (value instanceof FlatFunction) return align(HEADER + 7 * POINTER);
+        if (value instanceof LoxFunction) return align(HEADER + 3 * POINTER);
+        if (value instanceof LoxClass) return align(HEADER + 3 * POINTER) + map(((LoxClass) value).methods().size());
+        if (value instanceof String) return align(HEADER + POINTER + 6) + align(16 + ((String) value).length());
+        if (value instanceof Double) return align(HEADER + 8);
+        return align(HEADER);
+    }
+
+    // a HashMap with its table and entries; its keys are the names in the tokens, shared with the tree
+    private static long map(Map<?, ?> map){
+        return map(map.size());
+    }
+
+    private static long map(int size){
+
+        long bytes = align(HEADER + 6 * POINTER + 8);
+        if (size == 0) return bytes;
+
+        int capacity = 16;
+        while (capacity * 3 / 4 < size) capacity *= 2;
+
+        return bytes + align(16 + capacity * POINTER) + size * align(HEADER + 4 + 3 * POINTER);
+
+    }
+
+    private static long align(long bytes){
+        return (bytes + 7) & ~7L;
+    }
+
+    // the histogram by kind, the largest retained sizes first
+    String histogram(){
+
+        Map<String, Row> rows = new HashMap<>();
+        for (Node node : order){
+
+            Row row = rows.computeIfAbsent(node.kind, unused -> new Row());
+            row.count++;
+            row.shallow += node.shallow;
+
+            for (String kind : node.within){
+                rows.computeIfAbsent(kind, unused -> new Row()).retained += node.shallow;
+            }
+
+        }
+
+        List<Map.Entry<String, Row>> sorted = new ArrayList<>(rows.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue().retained, a.getValue().retained));
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-32s %10s %14s %14s%n", "kind", "count", "shallow (B)", "retained (B)"));
+
+        long shallow = 0;
+        for (Map.Entry<String, Row> entry : sorted){
+            Row row = entry.getValue();
+            out.append(String.format("%-32s %10d %14d %14d%n", entry.getKey(), row.count, row.shallow, row.retained));
+            shallow += row.shallow;
+        }
+
+        out.append(String.format("%-32s %10d %14d%n", "total", order.size(), shallow));
+        return out.toString();
+
+    }
+
+    // every object reached, one per line: its id, kind, sizes and the id of the object it was first reached through
+    // (-1 for a root), separated by tabs
+    void dump(Path file) throws IOException{
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))){
+
+            out.println("id\tkind\tshallow\tretained\towner");
+
+            for (Node node : order){
+                int owner = node.owner == null ? -1 : node.owner.id;
+                out.println(node.id + "\t" + node.kind + "\t" + node.shallow + "\t" + node.retained + "\t" + owner);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// the coverage of --coverage: which statements ran and which way each branch went, written as LCOV. before the
+// program runs every statement and every branch (if, while, and, or) gets an index; running one sets its bit, so
+// recording is a map lookup and a bit set, with no allocation. a branch has two bits: the first for the then branch,
+// the loop body or the right operand running, the second for the else branch, the loop ending or the right operand
+// being skipped. only the tree interpreter records coverage of the tree as it was written, so --flat and the
+// optimizer flags are ignored while it is on
+class Coverage {
+
+    static boolean active = false;
+
+    private static final Map<Stmt, Integer> statementIds = new IdentityHashMap<>();
+    private static final Map<Object, Integer> branchIds = new IdentityHashMap<>();
+
+    // by index: the line of each statement and of each branch
+    private static final List<Integer> statementLines = new ArrayList<>();
+    private static final List<Integer> branchLines = new ArrayList<>();
+
+    private static final BitSet executed = new BitSet();
+    private static final BitSet taken = new BitSet();
+
+    static void statement(Stmt stmt){
+        Integer id = statementIds.get(stmt);
+        if (id != null) executed.set(id);
+    }
+
+    // node is the Stmt.If, Stmt.While or Expr.Logical; first is whether it went the first way (see above)
+    static void branch(Object node, boolean first){
+        Integer id = branchIds.get(node);
+        if (id != null) taken.set(2 * id + (first ? 0 : 1));
+    }
+
+    // gives the statements and branches of a program their indices; bodies --lazy has not parsed are not counted
+    static void register(List<Stmt> statements){
+        for (Stmt statement : statements){
+            register(statement);
+        }
+    }
+
+    private static void register(Stmt stmt){
+
+        if (stmt == null || statementIds.containsKey(stmt)) return;
+
+        // a block has no line of its own, only its statements do
+        if (stmt.kind != Stmt.Kind.BLOCK){
+            statementIds.put(stmt, statementLines.size());
+            statementLines.add(Lines.of(stmt));
+        }
+
+        switch (stmt.kind) {
+            case BLOCK -> register(((Stmt.Block) stmt).statements);
+            case CLASS -> {
+                for (Stmt.Function method : ((Stmt.Class) stmt).methods){
+                    register(method);
+                }
+            }
+            case EXPRESSION -> register(((Stmt.Expression) stmt).expression);
+            case FUNCTION -> {
+                List<Stmt> body = ((Stmt.Function) stmt).body;
+                if (!(body instanceof LazyBody) || ((LazyBody) body).isParsed()) register(body);
+            }
+            case IF -> {
+                Stmt.If branch = (Stmt.If) stmt;
+                addBranch(branch, Lines.of(branch.condition));
+                register(branch.condition);
+                register(branch.thenBranch);
+                register(branch.elseBranch);
+            }
+            case PRINT -> register(((Stmt.Print) stmt).expression);
+            case RETURN -> register(((Stmt.Return) stmt).value);
+            case VAR -> register(((Stmt.Var) stmt).initializer);
+            case WHILE -> {
+                Stmt.While loop = (Stmt.While) stmt;
+                addBranch(loop, Lines.of(loop.condition));
+                register(loop.condition);
+                register(loop.body);
+            }
+        }
+
+    }
+
+    private static void register(Expr expr){
+
+        if (expr == null) return;
+
+        switch (expr.kind) {
+            case ASSIGN -> register(((Expr.Assign) expr).value);
+            case BINARY -> {
+                register(((Expr.Binary) expr).left);
+                register(((Expr.Binary) expr).right);
+            }
+            case CALL -> {
+                register(((Expr.Call) expr).callee);
+                for (Expr argument : ((Expr.Call) expr).arguments){
+                    register(argument);
+                }
+            }
+            case GET -> register(((Expr.Get) expr).object);
+            case GROUPING -> register(((Expr.Grouping) expr).expression);
+            case LOGICAL -> {
+                Expr.Logical logical = (Expr.Logical) expr;
+                addBranch(logical, logical.operator.line());
+                register(logical.left);
+                register(logical.right);
+            }
+            case SET -> {
+                register(((Expr.Set) expr).object);
+                register(((Expr.Set) expr).value);
+            }
+            case UNARY -> register(((Expr.Unary) expr).right);
+            case LITERAL, SUPER, THIS, VARIABLE -> {}
+        }
+
+    }
+
+    private static void addBranch(Object node, int line){
+        if (branchIds.containsKey(node)) return;
+        branchIds.put(node, branchLines.size());
+        branchLines.add(line);
+    }
+
+    // writes the coverage of the script at source as an LCOV tracefile. a line is hit if any statement on it ran;
+    // LCOV wants counts, and these are 1 or 0
+    static void write(Path file, Path source) throws IOException{
+
+        // line, hit
+        Map<Integer, Boolean> lines = new TreeMap<>();
+        for (int id = 0; id < statementLines.size(); id++){
+            lines.merge(statementLines.get(id), executed.get(id), Boolean::logicalOr);
+        }
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))){
+
+            out.println("TN:");
+            out.println("SF:" + source.toAbsolutePath().normalize());
+
+            // the branches of a line are numbered in the order they were registered, which is their order there
+            Map<Integer, Integer> blocks = new TreeMap<>();
+            int found = 0;
+            int hit = 0;
+
+            for (int id = 0; id < branchLines.size(); id++){
+
+                int line = branchLines.get(id);
+                int block = blocks.merge(line, 1, Integer::sum) - 1;
+                boolean first = taken.get(2 * id);
+                boolean second = taken.get(2 * id + 1);
+
+                // "-" marks a branch whose condition never ran
+                boolean ran = first || second;
+                out.println("BRDA:" + line + "," + block + ",0," + (ran ? (first ? "1" : "0") : "-"));
+                out.println("BRDA:" + line + "," + block + ",1," + (ran ? (second ? "1" : "0") : "-"));
+
+                found += 2;
+                if (first) hit++;
+                if (second) hit++;
+
+            }
+
+            out.println("BRF:" + found);
+            out.println("BRH:" + hit);
+
+            int linesHit = 0;
+            for (Map.Entry<Integer, Boolean> line : lines.entrySet()){
+                out.println("DA:" + line.getKey() + "," + (line.getValue() ? 1 : 0));
+                if (line.getValue()) linesHit++;
+            }
+
+            out.println("LF:" + lines.size());
+            out.println("LH:" + linesHit);
+            out.println("end_of_record");
+
+        }
+
+    }
+
+}
@@ -0,0 +1,682 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// removes statements and local bindings that have no effect (see --optimize): statements after a return, the branch
+// of an if (and the whole of a while) that a literal condition never takes, blocks left empty, and local variables
+// and functions that nothing reads or assigns. an unused variable whose initializer could fail or do something keeps
+// the initializer as an expression statement. a local variable that is assigned but never read goes too, and each
+// assignment to it becomes the value it assigns, which is what it evaluated to; an expression statement left with
+// nothing to do is dropped. assignments in a body the lazy parser skipped cannot be rewritten, so they count as
+// reads. globals are left alone, since code that is not in statements (a later REPL line, say) can use them. removing a binding can leave others unused, so the passes repeat until nothing
+// changes. the tree is rebuilt rather than changed, reusing every node that did not change, so the resolver's depths
+// stay valid; the depths of removed expressions are dropped from the interpreter
+class DeadCode implements Stmt.Visitor<Stmt> {
+
+    private final Interpreter interpreter;
+
+    // print a warning for what is removed (see --warn)
+    private final boolean warn;
+
+    // the local declarations that are read somewhere, by the token that declares them
+    private Set<Token> used = new HashSet<>();
+
+    // the assignments to local variables that are never read, and those variables
+    private Set<Expr.Assign> writeOnly = new HashSet<>();
+    private Set<Token> assigned = new HashSet<>();
+
+    private boolean changed;
+    private int removed = 0;
+
+    DeadCode(Interpreter interpreter, boolean warn){
+        this.interpreter = interpreter;
+        this.warn = warn;
+    }
+
+    List<Stmt> eliminate(List<Stmt> statements){
+
+        do{
+            changed = false;
+
+            Usage usage = new Usage(null);
+            usage.walk(statements);
+            used = usage.used;
+
+            writeOnly = new HashSet<>();
+            assigned = new HashSet<>();
+            for (Map.Entry<Expr.Assign, Token> assignment : usage.assignments.entrySet()){
+                if (used.contains(assignment.getValue())) continue;
+                writeOnly.add(assignment.getKey());
+                assigned.add(assignment.getValue());
+            }
+
+            statements = list(statements, false);
+        } while (changed);
+
+        return statements;
+
+    }
+
+    // the number of statements and bindings removed
+    int removed(){
+        return removed;
+    }
+
+    // drops stmt from the program
+    private void remove(Stmt stmt){
+
+        changed = true;
+        removed++;
+
+        Map<Expr, Integer> dropped = new HashMap<>();
+        new Usage(dropped).walk(List.of(stmt));
+        interpreter.forget(dropped);
+
+    }
+
+    // drops the resolution of expr, which is no longer part of the program
+    private void forget(Expr expr){
+        Map<Expr, Integer> dropped = new HashMap<>();
+        dropped.put(expr, interpreter.depth(expr));
+        interpreter.forget(dropped);
+    }
+
+    private void warning(Token token, String message){
+        if (warn) Lox.warning(token, message);
+    }
+
+    // the statements of a block or a function body without the dead ones, or the same list if none are
+    private List<Stmt> list(List<Stmt> statements, boolean local){
+
+        // the lazy parser skipped this body; it is not resolved yet
+        if (statements instanceof LazyBody) return statements;
+
+        List<Stmt> result = new ArrayList<>();
+        boolean same = true;
+
+        for (int i = 0; i < statements.size(); i++){
+
+            Stmt statement = statements.get(i);
+            Stmt kept = local ? local(statement) : statement.accept(this);
+
+            if (kept != null) result.add(kept);
+            if (kept != statement) same = false;
+
+            Token exit = kept == null ? null : exit(kept);
+            if (exit != null && i + 1 < statements.size()){
+
+                warning(exit, "Unreachable code after 'return'.");
+
+                for (Stmt dead : statements.subList(i + 1, statements.size())){
+                    remove(dead);
+                }
+
+                same = false;
+                break;
+
+            }
+
+        }
+
+        return same ? statements : result;
+
+    }
+
+    // a statement of a block or function body, where declarations are local
+    private Stmt local(Stmt statement){
+
+        if (statement instanceof Stmt.Var){
+
+            Stmt.Var var = (Stmt.Var) statement;
+            if (used.contains(var.name)) return var.accept(this);
+
+            if (assigned.contains(var.name)){
+                warning(var.name, "Local variable '" + var.name.lexeme + "' is assigned but never read.");
+            }else{
+                warning(var.name, "Local variable '" + var.name.lexeme + "' is never used.");
+            }
+
+            Expr initializer = strip(var.initializer);
+            if (initializer != null && !pure(initializer)){
+                changed = true;
+                removed++;
+                return new Stmt.Expression(initializer);
+            }
+
+            remove(var);
+            return null;
+
+        }
+
+        if (statement instanceof Stmt.Function){
+
+            Stmt.Function function = (Stmt.Function) statement;
+            if (used.contains(function.name)) return function.accept(this);
+
+            warning(function.name, "Local function '" + function.name.lexeme + "' is never used.");
+
+            remove(function);
+            return null;
+
+        }
+
+        return statement.accept(this);
+
+    }
+
+    // the return keyword if stmt always returns
+    private static Token exit(Stmt stmt){
+
+        if (stmt instanceof Stmt.Return) return ((Stmt.Return) stmt).keyword;
+
+        if (stmt instanceof Stmt.Block){
+            List<Stmt> statements = ((Stmt.Block) stmt).statements;
+            return statements.isEmpty() ? null : exit(statements.get(statements.size() - 1));
+        }
+
+        if (stmt instanceof Stmt.If){
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            if (ifStmt.elseBranch == null || exit(ifStmt.elseBranch) == null) return null;
+            return exit(ifStmt.thenBranch);
+        }
+
+        return null;
+
+    }
+
+    // whether evaluating expr can neither fail nor do anything
+    private boolean pure(Expr expr){
+
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+
+        // reading a global fails if it is not defined
+        if (expr instanceof Expr.Variable) return interpreter.depth(expr) != null;
+
+        if (expr instanceof Expr.Grouping) return pure(((Expr.Grouping) expr).expression);
+
+        if (expr instanceof Expr.Logical){
+            Expr.Logical logical = (Expr.Logical) expr;
+            return pure(logical.left) && pure(logical.right);
+        }
+
+        if (expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == TokenType.BANG && pure(unary.right);
+        }
+
+        if (expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            TokenType type = binary.operator.type;
+            return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL)
+                && pure(binary.left) && pure(binary.right);
+        }
+
+        return false;
+
+    }
+
+    // expr without its assignments to write-only locals; the same node if it has none. the nodes above a removed
+    // assignment are rebuilt, and a rebuilt assignment keeps the depth of the one it replaces
+    private Expr strip(Expr expr){
+
+        if (expr == null) return null;
+
+        switch (expr.kind) {
+
+            case ASSIGN: {
+                Expr.Assign assign = (Expr.Assign) expr;
+                Expr value = strip(assign.value);
+
+                if (writeOnly.contains(assign)){
+                    changed = true;
+                    forget(assign);
+                    return value;
+                }
+
+                if (value == assign.value) return assign;
+
+                Expr.Assign rebuilt = new Expr.Assign(assign.name, value);
+                Integer depth = interpreter.depth(assign);
+                if (depth != null) interpreter.resolve(rebuilt, depth);
+                forget(assign);
+                return rebuilt;
+            }
+
+            case BINARY: {
+                Expr.Binary binary = (Expr.Binary) expr;
+                Expr left = strip(binary.left);
+                Expr right = strip(binary.right);
+                if (left == binary.left && right == binary.right) return binary;
+                return new Expr.Binary(left, binary.operator, right);
+            }
+
+            case CALL: {
+                Expr.Call call = (Expr.Call) expr;
+                Expr callee = strip(call.callee);
+                List<Expr> arguments = new ArrayList<>(call.arguments.size());
+                boolean same = callee == call.callee;
+                for (Expr argument : call.arguments){
+                    Expr kept = strip(argument);
+                    arguments.add(kept);
+                    if (kept != argument) same = false;
+                }
+                return same ? call : new Expr.Call(callee, call.paren, arguments);
+            }
+
+            case GET: {
+                Expr.Get get = (Expr.Get) expr;
+                Expr object = strip(get.object);
+                return object == get.object ? get : new Expr.Get(object, get.name);
+            }
+
+            case GROUPING: {
+                Expr.Grouping grouping = (Expr.Grouping) expr;
+                Expr inner = strip(grouping.expression);
+                return inner == grouping.expression ? grouping : new Expr.Grouping(inner);
+            }
+
+            case LOGICAL: {
+                Expr.Logical logical = (Expr.Logical) expr;
+                Expr left = strip(logical.left);
+                Expr right = strip(logical.right);
+                if (left == logical.left && right == logical.right) return logical;
+                return new Expr.Logical(left, logical.operator, right);
+            }
+
+            case SET: {
+                Expr.Set set = (Expr.Set) expr;
+                Expr object = strip(set.object);
+                Expr value = strip(set.value);
+                if (object == set.object && value == set.value) return set;
+                return new Expr.Set(object, set.name, value);
+            }
+
+            case UNARY: {
+                Expr.Unary unary = (Expr.Unary) expr;
+                Expr right = strip(unary.right);
+                return right == unary.right ? unary : new Expr.Unary(unary.operator, right);
+            }
+
+            default:
+                return expr;
+
+        }
+
+    }
+
+    // the truthiness of a literal condition, or null if it is not one
+    private static Boolean constant(Expr condition){
+
+        if (condition instanceof Expr.Grouping) return constant(((Expr.Grouping) condition).expression);
+        if (condition instanceof Expr.Literal) return Interpreter.isTruthy(((Expr.Literal) condition).value);
+
+        return null;
+
+    }
+
+    // a branch or loop body that is now gone; they need a statement, and an empty block does nothing
+    private static Stmt orEmpty(Stmt stmt){
+        return stmt != null ? stmt : new Stmt.Block(new ArrayList<>());
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt){
+
+        List<Stmt> statements = list(stmt.statements, true);
+
+        if (statements.isEmpty()){
+            if (!stmt.statements.isEmpty()) changed = true;
+            return null;
+        }
+
+        return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt){
+
+        List<Stmt.Function> methods = new ArrayList<>();
+        boolean same = true;
+
+        for (Stmt.Function method : stmt.methods){
+            Stmt.Function kept = (Stmt.Function) method.accept(this);
+            methods.add(kept);
+            if (kept != method) same = false;
+        }
+
+        return same ? stmt : new Stmt.Class(stmt.name, stmt.superclass, methods);
+
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt){
+
+        Expr expression = strip(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        // all it did was assign a variable nothing reads
+        if (pure(expression)){
+            removed++;
+            return null;
+        }
+
+        return new Stmt.Expression(expression);
+
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt){
+        List<Stmt> body = list(stmt.body, true);
+        return body == stmt.body ? stmt : new Stmt.Function(stmt.name, stmt.params, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt){
+
+        Expr condition = strip(stmt.condition);
+        Boolean taken = constant(condition);
+
+        if (taken != null){
+
+            Stmt branch = taken ? stmt.thenBranch : stmt.elseBranch;
+            Stmt other = taken ? stmt.elseBranch : stmt.thenBranch;
+
+            if (other != null) remove(other);
+            else changed = true;
+
+            return branch == null ? null : branch.accept(this);
+
+        }
+
+        Stmt thenBranch = stmt.thenBranch.accept(this);
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+
+        if (thenBranch == null && elseBranch == null){
+            changed = true;
+            return pure(condition) ? null : new Stmt.Expression(condition);
+        }
+
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) return stmt;
+        return new Stmt.If(condition, orEmpty(thenBranch), elseBranch);
+
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt){
+        Expr expression = strip(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt){
+        Expr value = strip(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt){
+        Expr initializer = strip(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt){
+
+        Expr condition = strip(stmt.condition);
+
+        if (Boolean.FALSE.equals(constant(condition))){
+            remove(stmt);
+            return null;
+        }
+
+        Stmt body = stmt.body.accept(this);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, orEmpty(body));
+
+    }
+
+    // finds the local declarations that are used, tracking scopes the way the Resolver does; or, given a map,
+    // collects the depths of everything in a removed statement
+    private class Usage implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        private final Set<Token> used = new HashSet<>();
+        private final List<Map<String, Token>> scopes = new ArrayList<>();
+
+        // the assignments to local variables, with the variable each assigns; and those variables
+        private final Map<Expr.Assign, Token> assignments = new HashMap<>();
+        private final Set<Token> variables = new HashSet<>();
+
+        // how many bodies the lazy parser skipped the walk is in
+        private int lazy = 0;
+
+        private final Map<Expr, Integer> dropped;
+
+        Usage(Map<Expr, Integer> dropped){
+            this.dropped = dropped;
+        }
+
+        void walk(List<Stmt> statements){
+
+            // a body the lazy parser skipped has nothing resolved to drop; looking for uses in it parses it
+            if (statements instanceof LazyBody && dropped != null) return;
+
+            if (statements instanceof LazyBody) lazy++;
+
+            for (Stmt statement : statements){
+                statement.accept(this);
+            }
+
+            if (statements instanceof LazyBody) lazy--;
+
+        }
+
+        private void walk(Expr expr){
+            if (expr != null) expr.accept(this);
+        }
+
+        private void declare(Token name){
+            if (!scopes.isEmpty()) scopes.get(scopes.size() - 1).put(name.lexeme, name);
+        }
+
+        // marks the declaration name refers to as used, and records the depth of expr if it is being dropped
+        private void use(Expr expr, Token name){
+
+            if (dropped != null){
+                Integer depth = interpreter.depth(expr);
+                if (depth != null) dropped.put(expr, depth);
+                return;
+            }
+
+            for (int i = scopes.size() - 1; i >= 0; i--){
+                Token declaration = scopes.get(i).get(name.lexeme);
+                if (declaration == null) continue;
+
+                // only an assignment to a variable DeadCode can rewrite is not a use
+                if (expr instanceof Expr.Assign && variables.contains(declaration) && lazy == 0){
+                    assignments.put((Expr.Assign) expr, declaration);
+                }else{
+                    used.add(declaration);
+                }
+
+                return;
+            }
+
+        }
+
+        private void beginScope(){
+            scopes.add(new HashMap<>());
+        }
+
+        private void endScope(){
+            scopes.remove(scopes.size() - 1);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr){
+            walk(expr.value);
+            use(expr, expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr){
+            walk(expr.left);
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr){
+            walk(expr.callee);
+            for (Expr argument : expr.arguments){
+                walk(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr){
+            walk(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr){
+            walk(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr){
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr){
+            walk(expr.left);
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr){
+            walk(expr.object);
+            walk(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr){
+            use(expr, expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr){
+            use(expr, expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr){
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr){
+            use(expr, expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt){
+            beginScope();
+            walk(stmt.statements);
+            endScope();
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt){
+
+            declare(stmt.name);
+            walk(stmt.superclass);
+
+            for (Stmt.Function method : stmt.methods){
+                function(method);
+            }
+
+            return null;
+
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt){
+            walk(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt){
+            declare(stmt.name);
+            function(stmt);
+            return null;
+        }
+
+        private void function(Stmt.Function function){
+
+            beginScope();
+            for (Token param : function.params){
+                declare(param);
+            }
+
+            walk(function.body);
+            endScope();
+
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt){
+            walk(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt){
+            walk(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt){
+            walk(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt){
+            walk(stmt.initializer);
+            declare(stmt.name);
+            if (!scopes.isEmpty()) variables.add(stmt.name);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt){
+            walk(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+    }
+
+}
@@ -12,13 +12,21 @@ class Environment {
 
     Environment(){
         enclosing = null;
+        if (Stats.enabled) Stats.environments++;
+        if (Allocations.active) Allocations.record(Allocations.ENVIRONMENT);
     }
 
     Environment(Environment enclosing){
        this.enclosing = enclosing;
+       if (Stats.enabled) Stats.environments++;
+       if (Allocations.active) Allocations.record(Allocations.ENVIRONMENT);
+    }
+
+    // the variables of this scope, for Census
+    Map<String, Object> values(){
+        return values;
     }
 
-    
     // get the value of an existing variable
     Object get(Token name){
 
@@ -2,7 +2,7 @@ package lox;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr {
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
@@ -17,8 +17,29 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
   }
- static class Assign extends Expr {
+  enum Kind {
+    ASSIGN,
+    BINARY,
+    CALL,
+    GET,
+    GROUPING,
+    LITERAL,
+    LOGICAL,
+    SET,
+    SUPER,
+    THIS,
+    UNARY,
+    VARIABLE
+  }
+
+  final Kind kind;
+
+  Expr(Kind kind) {
+    this.kind = kind;
+  }
+ static final class Assign extends Expr {
     Assign(Token name, Expr value) {
+      super(Kind.ASSIGN);
       this.name = name;
       this.value = value;
     }
@@ -31,8 +52,9 @@ abstract class Expr {
     final Token name;
     final Expr value;
 }
- static class Binary extends Expr {
+ static final class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
+      super(Kind.BINARY);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -47,8 +69,9 @@ abstract class Expr {
     final Token operator;
     final Expr right;
 }
- static class Call extends Expr {
+ static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
+      super(Kind.CALL);
       this.callee = callee;
       this.paren = paren;
       this.arguments = arguments;
@@ -63,8 +86,9 @@ abstract class Expr {
     final Token paren;
     final List<Expr> arguments;
 }
- static class Get extends Expr {
+ static final class Get extends Expr {
     Get(Expr object, Token name) {
+      super(Kind.GET);
       this.object = object;
       this.name = name;
     }
@@ -77,8 +101,9 @@ abstract class Expr {
     final Expr object;
     final Token name;
 }
- static class Grouping extends Expr {
+ static final class Grouping extends Expr {
     Grouping(Expr expression) {
+      super(Kind.GROUPING);
       this.expression = expression;
     }
 
@@ -89,8 +114,10 @@ abstract class Expr {
 
     final Expr expression;
 }
- static class Literal extends Expr {
-    Literal(Object value) {
+ static final class Literal extends Expr {
+    Literal(Token token, Object value) {
+      super(Kind.LITERAL);
+      this.token = token;
       this.value = value;
     }
 
@@ -99,10 +126,12 @@ abstract class Expr {
         return visitor.visitLiteralExpr(this);
     }
 
+    final Token token;
     final Object value;
 }
- static class Logical extends Expr {
+ static final class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
+      super(Kind.LOGICAL);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -117,8 +146,9 @@ abstract class Expr {
     final Token operator;
     final Expr right;
 }
- static class Set extends Expr {
+ static final class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
+      super(Kind.SET);
       this.object = object;
       this.name = name;
       this.value = value;
@@ -133,8 +163,9 @@ abstract class Expr {
     final Token name;
     final Expr value;
 }
- static class Super extends Expr {
+ static final class Super extends Expr {
     Super(Token keyword, Token method) {
+      super(Kind.SUPER);
       this.keyword = keyword;
       this.method = method;
     }
@@ -147,8 +178,9 @@ abstract class Expr {
     final Token keyword;
     final Token method;
 }
- static class This extends Expr {
+ static final class This extends Expr {
     This(Token keyword) {
+      super(Kind.THIS);
       this.keyword = keyword;
     }
 
@@ -159,8 +191,9 @@ abstract class Expr {
 
     final Token keyword;
 }
- static class Unary extends Expr {
+ static final class Unary extends Expr {
     Unary(Token operator, Expr right) {
+      super(Kind.UNARY);
       this.operator = operator;
       this.right = right;
     }
@@ -173,8 +206,9 @@ abstract class Expr {
     final Token operator;
     final Expr right;
 }
- static class Variable extends Expr {
+ static final class Variable extends Expr {
     Variable(Token name) {
+      super(Kind.VARIABLE);
       this.name = name;
     }
 
@@ -0,0 +1,415 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// a resolved program stored in a few flat arrays instead of one object per node (see --flat and FlatInterpreter).
+// every node is a record in code: its kind followed by its operands, which are indices of other records or of the
+// constant and name pools. children are written before their parents, so a function body is one contiguous run of
+// code. the resolver's depths are stored in the records, and the nodes that can fail at runtime keep the index of a
+// site whose packed line and column (see Token.pack) are in positions; nothing points back at the tokens or the tree,
+// so both can be collected once the program is encoded
+class FlatAst {
+
+    // record layouts, after the kind. a depth of -1 means global, a child of -1 means none, and a list is a count
+    // followed by that many children
+
+    // expressions
+    static final int ASSIGN = 0;         // site, name, depth, value
+    static final int ADD = 1;            // site, left, right (the same for every binary operator)
+    static final int SUBTRACT = 2;
+    static final int MULTIPLY = 3;
+    static final int DIVIDE = 4;
+    static final int GREATER = 5;
+    static final int GREATER_EQUAL = 6;
+    static final int LESS = 7;
+    static final int LESS_EQUAL = 8;
+    static final int EQUAL = 9;
+    static final int NOT_EQUAL = 10;
+    static final int AND = 11;           // left, right
+    static final int OR = 12;            // left, right
+    static final int CALL = 13;          // site, callee, list of arguments
+    static final int GET = 14;           // site, name, object
+    static final int LITERAL = 15;       // constant
+    static final int NEGATE = 16;        // site, operand
+    static final int NOT = 17;           // operand
+    static final int SET = 18;           // site, name, object, value
+    static final int SUPER = 19;         // site, method name, depth
+    static final int THIS = 20;          // depth
+    static final int VARIABLE = 21;      // site, name, depth
+
+    // statements
+    static final int BLOCK = 22;         // index of a list of statements
+    static final int CLASS = 23;         // name, superclass variable, list of methods
+    static final int EXPRESSION = 24;    // expression
+    static final int FUNCTION = 25;      // site, name, list of parameter names, list of statements
+    static final int IF = 26;            // condition, then, else
+    static final int PRINT = 27;         // expression
+    static final int RETURN = 28;        // value
+    static final int VAR = 29;           // name, initializer
+    static final int WHILE = 30;         // condition, body
+
+    // operators that TypeInference proved only ever see numbers; they cannot fail, so they have no site
+    static final int NUMBER_ADD = 31;            // left, right (the same for every binary operator)
+    static final int NUMBER_SUBTRACT = 32;
+    static final int NUMBER_MULTIPLY = 33;
+    static final int NUMBER_DIVIDE = 34;
+    static final int NUMBER_GREATER = 35;
+    static final int NUMBER_GREATER_EQUAL = 36;
+    static final int NUMBER_LESS = 37;
+    static final int NUMBER_LESS_EQUAL = 38;
+    static final int NUMBER_NEGATE = 39;         // operand
+
+    final int[] code;
+
+    // literal values and identifiers, each stored once
+    final Object[] constants;
+    final String[] names;
+
+    // the position of every site
+    final int[] positions;
+
+    // index of the list of top-level statements
+    final int program;
+
+    private FlatAst(int[] code, Object[] constants, String[] names, int[] positions, int program){
+        this.code = code;
+        this.constants = constants;
+        this.names = names;
+        this.positions = positions;
+        this.program = program;
+    }
+
+    // encodes resolved statements; their resolutions are dropped from the interpreter, so that it does not keep
+    // the tree alive. the operators in numeric get the NUMBER_ kinds
+    static FlatAst encode(List<Stmt> statements, Interpreter interpreter, Set<Expr> numeric){
+
+        Encoder encoder = new Encoder(interpreter, numeric);
+        int program = encoder.list(statements);
+
+        interpreter.forget(encoder.resolved);
+
+        return new FlatAst(Arrays.copyOf(encoder.code, encoder.size), encoder.constants.toArray(),
+            encoder.names.toArray(new String[0]), Arrays.copyOf(encoder.positions, encoder.sites), program);
+
+    }
+
+    // where the body of the function record at node starts
+    int body(int node){
+        return node + 4 + code[node + 3];
+    }
+
+    private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+        private final Interpreter interpreter;
+        private final Set<Expr> numeric;
+        private final Map<Expr, Integer> resolved = new HashMap<>();
+
+        private int[] code = new int[1024];
+        private int size = 0;
+
+        private int[] positions = new int[256];
+        private int sites = 0;
+
+        // HashMap takes the null of a nil literal as a key like any other value
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndex = new HashMap<>();
+
+        Encoder(Interpreter interpreter, Set<Expr> numeric){
+            this.interpreter = interpreter;
+            this.numeric = numeric;
+        }
+
+        // appends a record and returns its index
+        private int emit(int... words){
+
+            if (size + words.length > code.length){
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+            }
+
+            System.arraycopy(words, 0, code, size, words.length);
+            size += words.length;
+
+            return size - words.length;
+
+        }
+
+        private int site(Token token){
+
+            if (sites == positions.length) positions = Arrays.copyOf(positions, sites * 2);
+
+            positions[sites] = token.position();
+            return sites++;
+
+        }
+
+        private int constant(Object value){
+
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+
+            constantIndex.put(value, constants.size());
+            constants.add(value);
+            return constants.size() - 1;
+
+        }
+
+        private int name(Token token){
+
+            Integer index = nameIndex.get(token.lexeme);
+            if (index != null) return index;
+
+            nameIndex.put(token.lexeme, names.size());
+            names.add(token.lexeme);
+            return names.size() - 1;
+
+        }
+
+        private int depth(Expr expr){
+
+            Integer depth = interpreter.depth(expr);
+            if (depth == null) return -1;
+
+            resolved.put(expr, depth);
+            return depth;
+
+        }
+
+        private int encode(Expr expr){
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        private int encode(Stmt stmt){
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        // encodes the statements and then the list record that refers to them
+        private int list(List<Stmt> statements){
+
+            int[] words = new int[statements.size() + 1];
+            words[0] = statements.size();
+
+            for (int i = 0; i < statements.size(); i++){
+                words[i + 1] = encode(statements.get(i));
+            }
+
+            return emit(words);
+
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr){
+            int value = encode(expr.value);
+            return emit(ASSIGN, site(expr.name), name(expr.name), depth(expr), value);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr){
+
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+
+            if (numeric.contains(expr)){
+                switch (expr.operator.type) {
+                    case PLUS: return emit(NUMBER_ADD, left, right);
+                    case MINUS: return emit(NUMBER_SUBTRACT, left, right);
+                    case STAR: return emit(NUMBER_MULTIPLY, left, right);
+                    case SLASH: return emit(NUMBER_DIVIDE, left, right);
+                    case GREATER: return emit(NUMBER_GREATER, left, right);
+                    case GREATER_EQUAL: return emit(NUMBER_GREATER_EQUAL, left, right);
+                    case LESS: return emit(NUMBER_LESS, left, right);
+                    default: return emit(NUMBER_LESS_EQUAL, left, right);
+                }
+            }
+
+            int kind;
+            switch (expr.operator.type) {
+                case PLUS: kind = ADD; break;
+                case MINUS: kind = SUBTRACT; break;
+                case STAR: kind = MULTIPLY; break;
+                case SLASH: kind = DIVIDE; break;
+                case GREATER: kind = GREATER; break;
+                case GREATER_EQUAL: kind = GREATER_EQUAL; break;
+                case LESS: kind = LESS; break;
+                case LESS_EQUAL: kind = LESS_EQUAL; break;
+                case EQUAL_EQUAL: kind = EQUAL; break;
+                default: kind = NOT_EQUAL; break;
+            }
+
+            return emit(kind, site(expr.operator), left, right);
+
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr){
+
+            int callee = encode(expr.callee);
+
+            int[] words = new int[expr.arguments.size() + 4];
+            words[0] = CALL;
+            words[1] = site(expr.paren);
+            words[2] = callee;
+            words[3] = expr.arguments.size();
+
+            for (int i = 0; i < expr.arguments.size(); i++){
+                words[i + 4] = encode(expr.arguments.get(i));
+            }
+
+            return emit(words);
+
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr){
+            int object = encode(expr.object);
+            return emit(GET, site(expr.name), name(expr.name), object);
+        }
+
+        // a grouping only mattered to the parser
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr){
+            return encode(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr){
+            return emit(LITERAL, constant(expr.value));
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr){
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            return emit(expr.operator.type == TokenType.OR ? OR : AND, left, right);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr){
+            int object = encode(expr.object);
+            int value = encode(expr.value);
+            return emit(SET, site(expr.name), name(expr.name), object, value);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr){
+            return emit(SUPER, site(expr.method), name(expr.method), depth(expr));
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr){
+            return emit(THIS, depth(expr));
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr){
+
+            int operand = encode(expr.right);
+
+            if (expr.operator.type == TokenType.BANG) return emit(NOT, operand);
+            if (numeric.contains(expr)) return emit(NUMBER_NEGATE, operand);
+            return emit(NEGATE, site(expr.operator), operand);
+
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr){
+            return emit(VARIABLE, site(expr.name), name(expr.name), depth(expr));
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt){
+            int list = list(stmt.statements);
+            return emit(BLOCK, list);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt){
+
+            int superclass = encode(stmt.superclass);
+
+            int[] words = new int[stmt.methods.size() + 4];
+            words[0] = CLASS;
+            words[1] = name(stmt.name);
+            words[2] = superclass;
+            words[3] = stmt.methods.size();
+
+            for (int i = 0; i < stmt.methods.size(); i++){
+                words[i + 4] = encode(stmt.methods.get(i));
+            }
+
+            return emit(words);
+
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt){
+            return emit(EXPRESSION, encode(stmt.expression));
+        }
+
+        // the body is copied into the record (rather than referred to) so that calls can run it in place
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt){
+
+            int[] body = new int[stmt.body.size()];
+            for (int i = 0; i < body.length; i++){
+                body[i] = encode(stmt.body.get(i));
+            }
+
+            int arity = stmt.params.size();
+            int[] words = new int[5 + arity + body.length];
+            words[0] = FUNCTION;
+            words[1] = site(stmt.name);
+            words[2] = name(stmt.name);
+            words[3] = arity;
+
+            for (int i = 0; i < arity; i++){
+                words[4 + i] = name(stmt.params.get(i));
+            }
+
+            words[4 + arity] = body.length;
+            System.arraycopy(body, 0, words, 5 + arity, body.length);
+
+            return emit(words);
+
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt){
+            int condition = encode(stmt.condition);
+            int thenBranch = encode(stmt.thenBranch);
+            int elseBranch = encode(stmt.elseBranch);
+            return emit(IF, condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt){
+            return emit(PRINT, encode(stmt.expression));
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt){
+            return emit(RETURN, encode(stmt.value));
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt){
+            return emit(VAR, name(stmt.name), encode(stmt.initializer));
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt){
+            int condition = encode(stmt.condition);
+            int body = encode(stmt.body);
+            return emit(WHILE, condition, body);
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package lox;
+
+import java.util.List;
+
+// a function or method of a FlatAst. it extends LoxFunction only so that LoxClass and LoxInstance can hold it like
+// any other method; there is no Stmt.Function behind it
+class FlatFunction extends LoxFunction {
+
+    private final FlatInterpreter interpreter;
+    private final FlatAst ast;
+
+    // the FUNCTION record
+    private final int node;
+
+    private final Environment closure;
+    private final boolean isInitializer;
+
+    FlatFunction(FlatInterpreter interpreter, FlatAst ast, int node, Environment closure, boolean isInitializer){
+        super(null, closure, isInitializer);
+        this.interpreter = interpreter;
+        this.ast = ast;
+        this.node = node;
+        this.closure = closure;
+        this.isInitializer = isInitializer;
+    }
+
+    @Override
+    FlatFunction bind(LoxInstance instance){
+        if (Stats.enabled) Stats.binds++;
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
+        return new FlatFunction(interpreter, ast, node, environment, isInitializer);
+    }
+
+    // only the tree interpreter invokes methods without binding them
+    @Override
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments){
+        return bind(instance).call(interpreter, arguments);
+    }
+
+    // the Interpreter argument is the one natives get; the body runs on the FlatInterpreter that created the function
+    @Override
+    public Object call(Interpreter unused, List<Object> arguments){
+
+        if (!LoxEvents.callsEnabled()) return run(arguments);
+
+        LoxEvents.Call event = new LoxEvents.Call();
+        event.begin();
+
+        try{
+            return run(arguments);
+        }finally{
+            event.end();
+            if (event.shouldCommit()){
+                event.function = name();
+                event.line = Token.line(ast.positions[ast.code[node + 1]]);
+                event.commit();
+            }
+        }
+
+    }
+
+    private Object run(List<Object> arguments){
+
+        Environment environment = new Environment(closure);
+
+        for (int i = 0; i < arguments.size(); i++){
+            environment.define(ast.names[ast.code[node + 4 + i]], arguments.get(i));
+        }
+
+        try{
+            interpreter.executeList(ast, ast.body(node), environment);
+        }catch(Return returnValue){
+
+            if (isInitializer) return closure.getAt(0, "this");
+
+            return returnValue.value;
+        }
+
+        if (isInitializer) return closure.getAt(0, "this");
+        return null;
+
+    }
+
+    @Override
+    public int arity(){
+        return ast.code[node + 3];
+    }
+
+    @Override
+    String name(){
+        return ast.names[ast.code[node + 2]];
+    }
+
+    @Override
+    public String toString(){
+        return "<fn " + name() + ">";
+    }
+
+}
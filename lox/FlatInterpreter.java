@@ -0,0 +1,426 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static lox.FlatAst.*;
+
+// runs a FlatAst directly, with the same semantics (and the same runtime errors) as Interpreter. it shares the
+// interpreter's globals, so the natives are there and the REPL keeps its state
+class FlatInterpreter {
+
+    // passed to natives and classes, which take an Interpreter to call with
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    private Environment environment;
+
+    // runtime errors need a token; one is built for a site the first time it is needed
+    private final Map<FlatAst, Token[]> tokens = new HashMap<>();
+
+    FlatInterpreter(Interpreter interpreter){
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.environment = globals;
+    }
+
+    void interpret(FlatAst ast){
+
+        try{
+            executeList(ast, ast.program, environment);
+        } catch (RuntimeError error){
+            Lox.runtimeError(error);
+        }
+
+    }
+
+    // the environment of the code running now, for Census
+    Environment environment(){
+        return environment;
+    }
+
+    // runs the statements of the list at index in environment
+    void executeList(FlatAst ast, int list, Environment environment){
+
+        int[] code = ast.code;
+        Environment previous = this.environment;
+
+        try{
+            this.environment = environment;
+
+            int count = code[list];
+            for (int i = 1; i <= count; i++){
+                execute(ast, code[list + i]);
+            }
+
+        }finally{
+            this.environment = previous;
+        }
+
+    }
+
+    private void execute(FlatAst ast, int node){
+
+        if (Stats.enabled) Stats.statements++;
+
+        int[] code = ast.code;
+
+        switch (code[node]) {
+
+            case BLOCK:
+                executeList(ast, code[node + 1], new Environment(environment));
+                break;
+
+            case CLASS:
+                executeClass(ast, node);
+                break;
+
+            case EXPRESSION:
+                evaluate(ast, code[node + 1]);
+                break;
+
+            case FUNCTION:
+                environment.define(ast.names[code[node + 2]], new FlatFunction(this, ast, node, environment, false));
+                break;
+
+            case IF:
+                if (Interpreter.isTruthy(evaluate(ast, code[node + 1]))){
+                    execute(ast, code[node + 2]);
+                }else if (code[node + 3] != -1){
+                    execute(ast, code[node + 3]);
+                }
+                break;
+
+            case PRINT:
+                System.out.println(Interpreter.stringify(evaluate(ast, code[node + 1])));
+                break;
+
+            case RETURN:
+                throw new Return(code[node + 1] == -1 ? null : evaluate(ast, code[node + 1]));
+
+            case VAR:
+                environment.define(ast.names[code[node + 1]], code[node + 2] == -1 ? null : evaluate(ast, code[node + 2]));
+                break;
+
+            case WHILE:
+                while (Interpreter.isTruthy(evaluate(ast, code[node + 1]))){
+                    execute(ast, code[node + 2]);
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("Not a statement: " + code[node]);
+
+        }
+
+    }
+
+    private void executeClass(FlatAst ast, int node){
+
+        int[] code = ast.code;
+        String name = ast.names[code[node + 1]];
+
+        Object superclass = null;
+        if (code[node + 2] != -1){
+            superclass = evaluate(ast, code[node + 2]);
+            if (!(superclass instanceof LoxClass)){
+                throw new RuntimeError(token(ast, code[node + 2]), "Superclass must be a class.");
+            }
+        }
+
+        environment.define(name, null);
+
+        if (superclass != null){
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (int i = 1; i <= code[node + 3]; i++){
+            int method = code[node + 3 + i];
+            String methodName = ast.names[code[method + 2]];
+            methods.put(methodName, new FlatFunction(this, ast, method, environment, methodName.equals("init")));
+        }
+
+        LoxClass klass = new LoxClass(name, (LoxClass) superclass, methods);
+
+        if (superclass != null) environment = environment.enclosing;
+
+        environment.define(name, klass);
+
+    }
+
+    private Object evaluate(FlatAst ast, int node){
+
+        int[] code = ast.code;
+
+        switch (code[node]) {
+
+            case LITERAL:
+                return ast.constants[code[node + 1]];
+
+            case VARIABLE:
+                return lookUpVariable(ast, node);
+
+            case THIS:
+                return environment.getAt(code[node + 1], "this");
+
+            case ASSIGN: {
+
+                Object value = evaluate(ast, code[node + 4]);
+                String name = ast.names[code[node + 2]];
+                int depth = code[node + 3];
+
+                if (depth != -1){
+                    environment.ancestor(depth).define(name, value);
+                }else{
+                    globals.assign(token(ast, node), value);
+                }
+
+                return value;
+
+            }
+
+            case ADD: {
+
+                Object left = evaluate(ast, code[node + 2]);
+                Object right = evaluate(ast, code[node + 3]);
+
+                if (left instanceof Double && right instanceof Double) return (double) left + (double) right;
+                if (left instanceof String && right instanceof String) return (String) left + (String) right;
+
+                throw new RuntimeError(token(ast, node), "Operands must be two numbers or two strings");
+
+            }
+
+            case SUBTRACT: case MULTIPLY: case DIVIDE:
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                return arithmetic(ast, node);
+
+            case EQUAL:
+                return Interpreter.isEqual(evaluate(ast, code[node + 2]), evaluate(ast, code[node + 3]));
+
+            case NOT_EQUAL:
+                return !Interpreter.isEqual(evaluate(ast, code[node + 2]), evaluate(ast, code[node + 3]));
+
+            case AND: {
+                Object left = evaluate(ast, code[node + 1]);
+                if (!Interpreter.isTruthy(left)) return left;
+                return evaluate(ast, code[node + 2]);
+            }
+
+            case OR: {
+                Object left = evaluate(ast, code[node + 1]);
+                if (Interpreter.isTruthy(left)) return left;
+                return evaluate(ast, code[node + 2]);
+            }
+
+            case NOT:
+                return !Interpreter.isTruthy(evaluate(ast, code[node + 1]));
+
+            case NUMBER_ADD: case NUMBER_SUBTRACT: case NUMBER_MULTIPLY: case NUMBER_DIVIDE:
+            case NUMBER_GREATER: case NUMBER_GREATER_EQUAL: case NUMBER_LESS: case NUMBER_LESS_EQUAL:
+                return numeric(ast, node);
+
+            case NUMBER_NEGATE:
+                return -(double) evaluate(ast, code[node + 1]);
+
+            case NEGATE: {
+                Object operand = evaluate(ast, code[node + 2]);
+                if (!(operand instanceof Double)) throw new RuntimeError(token(ast, node), "Operand must be a number.");
+                return -(double) operand;
+            }
+
+            case CALL:
+                return call(ast, node);
+
+            case GET: {
+
+                Object object = evaluate(ast, code[node + 3]);
+                if (object instanceof LoxInstance){
+                    if (Stats.enabled) Stats.gets++;
+                    return ((LoxInstance) object).get(token(ast, node));
+                }
+
+                throw new RuntimeError(token(ast, node), "Only instances have properties.");
+
+            }
+
+            case SET: {
+
+                Object object = evaluate(ast, code[node + 3]);
+                if (!(object instanceof LoxInstance)){
+                    throw new RuntimeError(token(ast, node), "Only instances have fields.");
+                }
+
+                Object value = evaluate(ast, code[node + 4]);
+                if (Stats.enabled) Stats.sets++;
+                ((LoxInstance) object).set(token(ast, node), value);
+                return value;
+
+            }
+
+            case SUPER: {
+
+                int distance = code[node + 3];
+                LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
+                LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+
+                String name = ast.names[code[node + 2]];
+                LoxFunction method = superclass.findMethod(name);
+
+                if (method == null){
+                    throw new RuntimeError(token(ast, node), "Undefined property '" + name + "'.");
+                }
+
+                return method.bind(object);
+
+            }
+
+            default:
+                throw new IllegalStateException("Not an expression: " + code[node]);
+
+        }
+
+    }
+
+    // the binary operators that only take numbers
+    private Object arithmetic(FlatAst ast, int node){
+
+        int[] code = ast.code;
+        Object left = evaluate(ast, code[node + 2]);
+        Object right = evaluate(ast, code[node + 3]);
+
+        if (!(left instanceof Double && right instanceof Double)){
+            throw new RuntimeError(token(ast, node), "Operands must be numbers");
+        }
+
+        double a = (double) left;
+        double b = (double) right;
+
+        switch (code[node]) {
+            case SUBTRACT: return a - b;
+            case MULTIPLY: return a * b;
+            case DIVIDE: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            default: return a <= b;
+        }
+
+    }
+
+    // the binary operators TypeInference proved only ever see numbers
+    private Object numeric(FlatAst ast, int node){
+
+        int[] code = ast.code;
+        double a = (double) evaluate(ast, code[node + 1]);
+        double b = (double) evaluate(ast, code[node + 2]);
+
+        switch (code[node]) {
+            case NUMBER_ADD: return a + b;
+            case NUMBER_SUBTRACT: return a - b;
+            case NUMBER_MULTIPLY: return a * b;
+            case NUMBER_DIVIDE: return a / b;
+            case NUMBER_GREATER: return a > b;
+            case NUMBER_GREATER_EQUAL: return a >= b;
+            case NUMBER_LESS: return a < b;
+            default: return a <= b;
+        }
+
+    }
+
+    private Object call(FlatAst ast, int node){
+
+        int[] code = ast.code;
+        Object callee = evaluate(ast, code[node + 2]);
+
+        int count = code[node + 3];
+        List<Object> arguments = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++){
+            arguments.add(evaluate(ast, code[node + 3 + i]));
+        }
+
+        if (!(callee instanceof LoxCallable)){
+            throw new RuntimeError(token(ast, node), "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+
+        if (count != function.arity()){
+            throw new RuntimeError(token(ast, node), "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
+
+        if (Stats.enabled) Stats.calls++;
+        if (Metrics.enabled) Metrics.call();
+        if (Tracer.active) Tracer.call(Token.line(ast.positions[code[node + 1]]));
+
+        Object result;
+        if (!Profiler.active){
+            result = function.call(interpreter, arguments);
+        }else{
+
+            Profiler.enter(function, Token.line(ast.positions[code[node + 1]]));
+            try{
+                result = function.call(interpreter, arguments);
+            }finally{
+                Profiler.exit();
+            }
+
+        }
+
+        if (Tracer.active) Tracer.ret(Token.line(ast.positions[code[node + 1]]));
+        return result;
+
+    }
+
+    private Object lookUpVariable(FlatAst ast, int node){
+
+        int[] code = ast.code;
+        String name = ast.names[code[node + 2]];
+        int depth = code[node + 3];
+
+        if (depth != -1) return environment.getAt(depth, name);
+
+        // a global that holds a value needs no token; nil or undefined goes through Environment.get for the error
+        Object value = globals.getAt(0, name);
+        if (value != null) return value;
+
+        return globals.get(token(ast, node));
+
+    }
+
+    // the token of the site of node, rebuilt from its name or operator and its position
+    private Token token(FlatAst ast, int node){
+
+        int[] code = ast.code;
+        int site = code[node + 1];
+
+        Token[] built = tokens.computeIfAbsent(ast, unused -> new Token[ast.positions.length]);
+        if (built[site] != null) return built[site];
+
+        int line = Token.line(ast.positions[site]);
+        int column = Token.column(ast.positions[site]);
+
+        switch (code[node]) {
+            case ASSIGN: case GET: case SET: case SUPER: case VARIABLE:
+                built[site] = new Token(TokenType.IDENTIFIER, ast.names[code[node + 2]], null, line, column);
+                break;
+            case CALL: built[site] = new Token(TokenType.RIGHT_PAREN, ")", null, line, column); break;
+            case ADD: built[site] = new Token(TokenType.PLUS, "+", null, line, column); break;
+            case SUBTRACT: case NEGATE: built[site] = new Token(TokenType.MINUS, "-", null, line, column); break;
+            case MULTIPLY: built[site] = new Token(TokenType.STAR, "*", null, line, column); break;
+            case DIVIDE: built[site] = new Token(TokenType.SLASH, "/", null, line, column); break;
+            case GREATER: built[site] = new Token(TokenType.GREATER, ">", null, line, column); break;
+            case GREATER_EQUAL: built[site] = new Token(TokenType.GREATER_EQUAL, ">=", null, line, column); break;
+            case LESS: built[site] = new Token(TokenType.LESS, "<", null, line, column); break;
+            default: built[site] = new Token(TokenType.LESS_EQUAL, "<=", null, line, column); break;
+        }
+
+        return built[site];
+
+    }
+
+}
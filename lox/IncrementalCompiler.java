@@ -0,0 +1,369 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static lox.TokenType.*;
+
+// keeps the scanned, parsed and resolved form of one script between edits. every top-level statement is a unit with
+// its own source range, tokens, resolutions and errors; the resolver leaves the scopes empty between top-level
+// statements, so units can be resolved independently. an edit rescans from the end of the last unit before it until
+// the scanner lands exactly on the start of an unchanged unit after it, in the same column as before, reparses and
+// resolves only those tokens, and keeps every other unit (moving the ones after the edit to their new offsets and
+// lines; their columns stay what they were)
+class IncrementalCompiler {
+
+    private final Interpreter interpreter;
+
+    private String source = "";
+    private List<Unit> units = new ArrayList<>();
+
+    IncrementalCompiler(Interpreter interpreter){
+        this.interpreter = interpreter;
+    }
+
+    // compiles source from scratch
+    List<Stmt> compile(String source){
+
+        for (Unit unit : units){
+            interpreter.forget(unit.locals);
+        }
+
+        this.source = source;
+        this.units = analyze(0, 1, source.length(), new ArrayList<>(), 0).units;
+
+        report();
+        return statements();
+
+    }
+
+    // applies the change that turns the current source into source; the common prefix and suffix stay untouched
+    List<Stmt> update(String source){
+
+        int prefix = 0;
+        int limit = Math.min(this.source.length(), source.length());
+        while (prefix < limit && this.source.charAt(prefix) == source.charAt(prefix)) prefix++;
+
+        int suffix = 0;
+        limit -= prefix;
+        while (suffix < limit
+                && this.source.charAt(this.source.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)){
+            suffix++;
+        }
+
+        return edit(prefix, this.source.length() - prefix - suffix,
+            source.substring(prefix, source.length() - suffix));
+
+    }
+
+    // replaces the removed characters at offset with inserted and returns the statements of the new program.
+    // errors of every unit, old or new, are reported again in source order
+    List<Stmt> edit(int offset, int removed, String inserted){
+
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        int delta = inserted.length() - removed;
+
+        // units that end before the edit are kept as they are; a unit that touches it is redone
+        int first = 0;
+        while (first < units.size() && units.get(first).end < offset) first++;
+
+        // text after an "if" may be its "else", and text after a statement with errors may complete it, so those
+        // statements are parsed again together with the edit
+        while (first > 0 && (units.get(first - 1).statement instanceof Stmt.If || !units.get(first - 1).errors.isEmpty())){
+            first--;
+        }
+
+        int from = first == 0 ? 0 : units.get(first - 1).end;
+        int line = first == 0 ? 1 : units.get(first - 1).endLine;
+
+        // units that start after the edit can be reused once the rescan reaches their (moved) start
+        int next = first;
+        while (next < units.size() && units.get(next).start <= offset + removed) next++;
+
+        // the unit of the scanning errors of a region covers all of it, and its bad characters may be past the edit,
+        // so if it is redone the rescan goes at least to its end
+        int editEnd = offset + inserted.length();
+        for (Unit unit : units.subList(first, next)){
+            if (unit.scanFailed) editEnd = Math.max(editEnd, unit.end + delta);
+        }
+
+        this.source = edited;
+
+        Region region = analyze(from, line, editEnd, units.subList(next, units.size()), delta);
+        int resume = next + region.resume;
+
+        List<Unit> result = new ArrayList<>(units.subList(0, first));
+        result.addAll(region.units);
+
+        for (Unit unit : units.subList(first, resume)){
+            interpreter.forget(unit.locals);
+        }
+
+        for (Unit unit : units.subList(resume, units.size())){
+            unit.move(delta, region.lineDelta);
+            result.add(unit);
+        }
+
+        units = result;
+
+        report();
+        return statements();
+
+    }
+
+    // like Lox.compile, which does not resolve a program that failed to parse, the resolver errors of the units
+    // are only reported when no unit has scanning or parsing errors
+    private void report(){
+
+        boolean parseFailed = false;
+        for (Unit unit : units){
+            parseFailed |= unit.parseFailed;
+        }
+
+        for (Unit unit : units){
+            if (unit.parseFailed || !parseFailed) Lox.reportDeferred(unit.errors);
+        }
+
+    }
+
+    // the program as it is now; the interpreter gets the super sites of exactly these units
+    private List<Stmt> statements(){
+
+        List<Stmt> statements = new ArrayList<>(units.size());
+        Map<Token, List<Expr.Super>> superSites = new HashMap<>();
+
+        for (Unit unit : units){
+            if (unit.statement != null) statements.add(unit.statement);
+            superSites.putAll(unit.superSites);
+        }
+
+        interpreter.superSites(superSites);
+        return statements;
+
+    }
+
+    // scans from a lexeme boundary past editEnd until the scanner stops exactly at the start of one of the
+    // following units (or the end), then parses and resolves the tokens it read. the parser keeps no state between
+    // top-level statements, so if the new tokens parse cleanly up to that unit, parsing on from there would give
+    // exactly the units that are already there; if they do not, the statement that failed may have needed the
+    // tokens after it, and the whole rest of the source is redone
+    private Region analyze(int from, int line, int editEnd, List<Unit> following, int delta){
+
+        List<String> scanErrors = new ArrayList<>();
+        List<String> previous = Lox.deferErrors(scanErrors);
+
+        Scanner scanner = new Scanner(source, from, source.length(), line);
+        scanner.recordPositions();
+
+        int resume = following.size();
+        int lineDelta = 0;
+
+        try{
+
+            scanner.scanUntil(editEnd);
+
+            for (int i = 0; i < following.size(); i++){
+
+                Unit unit = following.get(i);
+
+                // an "else" belongs to the statement before it, so the rescan never stops in front of one
+                if (unit.startsWithElse) continue;
+
+                // the bad characters of a unit of scanning errors can be anywhere in its range, so the rescan goes
+                // past the end of it; stopping any earlier would drop the unit and its errors with it
+                if (unit.scanFailed){
+                    scanner.scanUntil(unit.end + delta);
+                    continue;
+                }
+
+                // a unit that the edit moved along its line would need the columns of its tokens changed, so the
+                // rescan goes on to one whose column is the same (at the latest, the first one on a later line)
+                int stop = unit.start + delta;
+                if (scanner.scanUntil(stop) == stop && column(stop) == unit.startColumn){
+                    resume = i;
+                    lineDelta = scanner.line() - unit.startLine;
+                    break;
+                }
+
+            }
+
+            if (resume == following.size()) scanner.scanChunk();
+
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+        List<Token> tokens = scanner.tokens();
+        int count = tokens.size();
+        tokens.add(new Token(EOF, "", null, scanner.line()));
+
+        Region region = new Region();
+        region.units = new ArrayList<>();
+        region.resume = resume;
+        region.lineDelta = lineDelta;
+
+        // scanning errors get a unit of their own that spans the whole region, so that any later edit in the region
+        // (which is where the bad characters are) redoes it
+        if (!scanErrors.isEmpty()){
+            Unit unit = new Unit(null, new ArrayList<>(), scanErrors);
+            unit.start = from;
+            unit.startLine = line;
+            unit.startColumn = column(from);
+            unit.end = scanner.position();
+            unit.endLine = scanner.line();
+            unit.parseFailed = true;
+            unit.scanFailed = true;
+            region.units.add(unit);
+        }
+
+        region.units.addAll(parse(scanner, tokens, count));
+
+        if (resume < following.size()){
+            for (Unit unit : region.units){
+                if (unit.parseFailed){
+                    for (Unit created : region.units){
+                        interpreter.forget(created.locals);
+                    }
+                    Region rest = analyze(from, line, editEnd, new ArrayList<>(), delta);
+                    rest.resume = following.size();
+                    return rest;
+                }
+            }
+        }
+
+        return region;
+
+    }
+
+    private List<Unit> parse(Scanner scanner, List<Token> tokens, int count){
+
+        List<Unit> units = new ArrayList<>();
+        Parser parser = new Parser(tokens);
+
+        while (parser.hasNext()){
+
+            int first = parser.position();
+
+            List<String> errors = new ArrayList<>();
+            List<String> previous = Lox.deferErrors(errors);
+            Stmt statement;
+
+            try{
+                statement = parser.next();
+            }finally{
+                Lox.restoreErrors(previous);
+            }
+
+            int last = Math.min(parser.position(), count) - 1;
+            if (last < first) last = first;
+
+            Unit unit = new Unit(statement, tokens.subList(first, last + 1), errors);
+            unit.parseFailed = !errors.isEmpty();
+            unit.start = scanner.start(first);
+            unit.startLine = scanner.startLine(first);
+            unit.startColumn = column(unit.start);
+            unit.end = scanner.start(last) + tokens.get(last).lexeme.length();
+            unit.endLine = tokens.get(last).line();
+            unit.startsWithElse = tokens.get(first).type == ELSE;
+
+            resolve(unit);
+            units.add(unit);
+
+        }
+
+        return units;
+
+    }
+
+    // the column of offset in the current source, counted the way the Scanner counts them
+    private int column(int offset){
+        return offset - (source.lastIndexOf('\n', offset - 1) + 1) + 1;
+    }
+
+    private void resolve(Unit unit){
+
+        if (unit.statement == null || !unit.errors.isEmpty()) return;
+
+        List<String> previous = Lox.deferErrors(unit.errors);
+
+        try{
+            List<Stmt> statements = new ArrayList<>();
+            statements.add(unit.statement);
+            Resolver resolver = new Resolver(unit.locals);
+            resolver.resolve(statements);
+            unit.superSites = resolver.superSites();
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+        interpreter.resolveAll(unit.locals);
+
+    }
+
+    private static class Region {
+
+        List<Unit> units;
+
+        // index (into the units that followed the edit) of the first one reused after the region, and how far its
+        // lines move
+        int resume;
+        int lineDelta;
+
+    }
+
+    private static class Unit {
+
+        final Stmt statement;
+        final List<Token> tokens;
+        final List<String> errors;
+        final Map<Expr, Integer> locals = new HashMap<>();
+
+        // those of the unit's class, if it is a top-level subclass (see Resolver.superSites)
+        Map<Token, List<Expr.Super>> superSites = Map.of();
+
+        // source range [start, end) from the first character of the first token to the last of the last
+        int start;
+        int end;
+
+        // the line the first token starts on and the line the last one ends on
+        int startLine;
+        int endLine;
+
+        // the column of start
+        int startColumn;
+
+        boolean startsWithElse;
+
+        // whether the scanner or parser reported errors for this unit (as opposed to only the resolver)
+        boolean parseFailed;
+
+        // whether this is the unit of the scanning errors of a region (see analyze)
+        boolean scanFailed;
+
+        Unit(Stmt statement, List<Token> tokens, List<String> errors){
+            this.statement = statement;
+            this.tokens = tokens;
+            this.errors = errors;
+        }
+
+        void move(int delta, int lineDelta){
+
+            start += delta;
+            end += delta;
+
+            if (lineDelta == 0) return;
+
+            startLine += lineDelta;
+            endLine += lineDelta;
+            for (Token token : tokens){
+                token.moveLines(lineDelta);
+            }
+            errors.replaceAll(error -> Lox.moveError(error, lineDelta));
+
+        }
+
+    }
+
+}
@@ -0,0 +1,372 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// inlines calls to small top-level functions (see --optimize). a function qualifies if its body is a single
+// "return <expression>;" whose expression only reads its parameters and globals through operators, groupings and
+// property gets, and if the program never assigns or declares its name anywhere else. a call to it qualifies if the
+// callee is that global and every argument is a literal, a local variable or "this": those cannot fail or change
+// anything, so it does not matter how often they are evaluated. such a call gets a copy of the return expression
+// with the arguments in place of the parameters, which the interpreter evaluates instead of making the call for as
+// long as the global still holds the function (see Interpreter.visitCallExpr)
+class Inliner implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    // bodies bigger than this many nodes are not worth copying into every call site
+    private static final int MAX_NODES = 16;
+
+    private final Interpreter interpreter;
+
+    // the functions that qualify, by name
+    private final Map<String, Stmt.Function> candidates = new HashMap<>();
+
+    // globals declared more than once or assigned to
+    private final Set<String> unstable = new HashSet<>();
+
+    private final List<String> report = new ArrayList<>();
+
+    // set during the first walk, which only looks for assignments to globals
+    private boolean collecting = false;
+
+    Inliner(Interpreter interpreter){
+        this.interpreter = interpreter;
+    }
+
+    // what was inlined, one line per call site
+    List<String> report(){
+        return report;
+    }
+
+    void inline(List<Stmt> statements){
+
+        Set<String> declared = new HashSet<>();
+
+        for (Stmt statement : statements){
+
+            Token name = declaredName(statement);
+            if (name == null) continue;
+
+            if (!declared.add(name.lexeme)) unstable.add(name.lexeme);
+
+            if (statement instanceof Stmt.Function && qualifies((Stmt.Function) statement)){
+                candidates.put(name.lexeme, (Stmt.Function) statement);
+            }
+
+        }
+
+        // the first walk only collects assignments to globals; calls are inlined on the second
+        collecting = true;
+        walk(statements);
+        collecting = false;
+
+        for (String name : unstable) candidates.remove(name);
+
+        if (!candidates.isEmpty()) walk(statements);
+
+    }
+
+    private static Token declaredName(Stmt statement){
+        if (statement instanceof Stmt.Function) return ((Stmt.Function) statement).name;
+        if (statement instanceof Stmt.Var) return ((Stmt.Var) statement).name;
+        if (statement instanceof Stmt.Class) return ((Stmt.Class) statement).name;
+        return null;
+    }
+
+    private boolean qualifies(Stmt.Function function){
+
+        // a body the lazy parser skipped is not resolved until the first call, so its parameters cannot be told
+        // from globals
+        if (function.body instanceof LazyBody) return false;
+
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return)) return false;
+
+        Expr value = ((Stmt.Return) function.body.get(0)).value;
+        return value != null && size(value) <= MAX_NODES;
+
+    }
+
+    // the number of nodes in expr, or more than MAX_NODES if it contains anything that cannot be inlined
+    private int size(Expr expr){
+
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable) return 1;
+        if (expr instanceof Expr.Grouping) return size(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) return 1 + size(((Expr.Unary) expr).right);
+        if (expr instanceof Expr.Get) return 1 + size(((Expr.Get) expr).object);
+
+        if (expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            return 1 + size(binary.left) + size(binary.right);
+        }
+
+        if (expr instanceof Expr.Logical){
+            Expr.Logical logical = (Expr.Logical) expr;
+            return 1 + size(logical.left) + size(logical.right);
+        }
+
+        return MAX_NODES + 1;
+
+    }
+
+    private void inlineCall(Expr.Call call){
+
+        if (!(call.callee instanceof Expr.Variable) || interpreter.depth(call.callee) != null) return;
+
+        Token name = ((Expr.Variable) call.callee).name;
+        Stmt.Function function = candidates.get(name.lexeme);
+        if (function == null || function.params.size() != call.arguments.size()) return;
+
+        Map<String, Expr> arguments = new HashMap<>();
+        for (int i = 0; i < call.arguments.size(); i++){
+
+            Expr argument = call.arguments.get(i);
+            boolean local = argument instanceof Expr.Variable && interpreter.depth(argument) != null;
+            if (!local && !(argument instanceof Expr.Literal) && !(argument instanceof Expr.This)) return;
+
+            arguments.put(function.params.get(i).lexeme, argument);
+
+        }
+
+        Expr body = ((Stmt.Return) function.body.get(0)).value;
+        interpreter.inline(call, new Inline(name.lexeme, function, body.accept(new Substitution(arguments))));
+
+        report.add("[line " + call.paren.line() + "] inlined call to '" + name.lexeme + "'");
+
+    }
+
+    // a call site the interpreter can replace with body while the global name holds function
+    static class Inline {
+
+        final String name;
+        final Stmt.Function function;
+        final Expr body;
+
+        Inline(String name, Stmt.Function function, Expr body){
+            this.name = name;
+            this.function = function;
+            this.body = body;
+        }
+
+        boolean holds(Object callee){
+            return callee instanceof LoxFunction && ((LoxFunction) callee).declaredBy(function);
+        }
+
+    }
+
+    // copies the return expression of a function, putting the arguments where its parameters are read. parameters
+    // are the only variables resolved to the function's own scope (depth 0); globals, which are not resolved at all,
+    // are read the same way from anywhere, so those nodes are shared with the original
+    private class Substitution implements Expr.Visitor<Expr> {
+
+        private final Map<String, Expr> arguments;
+
+        Substitution(Map<String, Expr> arguments){
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr){
+            if (interpreter.depth(expr) == null) return expr;
+            return arguments.get(expr.name.lexeme);
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr){
+            return expr;
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr){
+            return new Expr.Grouping(expr.expression.accept(this));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr){
+            return new Expr.Unary(expr.operator, expr.right.accept(this));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr){
+            return new Expr.Binary(expr.left.accept(this), expr.operator, expr.right.accept(this));
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr){
+            return new Expr.Logical(expr.left.accept(this), expr.operator, expr.right.accept(this));
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr){
+            return new Expr.Get(expr.object.accept(this), expr.name);
+        }
+
+        // size() keeps every other kind of node out of inlined bodies
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr){ throw new IllegalStateException(); }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr){ throw new IllegalStateException(); }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr){ throw new IllegalStateException(); }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr){ throw new IllegalStateException(); }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr){ throw new IllegalStateException(); }
+
+    }
+
+    // walking the tree --------------------------------------------------------------------------------------------
+
+    private void walk(List<Stmt> statements){
+        for (Stmt statement : statements){
+            statement.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+
+        expr.callee.accept(this);
+        for (Expr argument : expr.arguments){
+            argument.accept(this);
+        }
+
+        if (!collecting) inlineCall(expr);
+        return null;
+
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        if (collecting && interpreter.depth(expr) == null) unstable.add(expr.name.lexeme);
+        expr.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        expr.object.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        expr.object.accept(this);
+        expr.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        walk(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        for (Stmt.Function method : stmt.methods){
+            method.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    // bodies the lazy parser skipped are left alone: they are not resolved yet, so locals would look like globals
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        if (stmt.body instanceof LazyBody) return null;
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if (stmt.value != null) stmt.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        if (stmt.initializer != null) stmt.initializer.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        stmt.condition.accept(this);
+        stmt.body.accept(this);
+        return null;
+    }
+
+}
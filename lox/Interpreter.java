@@ -1,12 +1,18 @@
 package lox;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
+    // evaluate and execute switch on the node's kind instead of calling accept; -Dlox.dispatch=visitor goes back to
+    // the double dispatch through accept, to compare the two
+    private static final boolean SWITCH_DISPATCH = !"visitor".equals(System.getProperty("lox.dispatch"));
+
     final Environment globals = new Environment();
 
     // used to store variables and their values
@@ -16,6 +22,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // side table for storing resolution information for the interpreter
     private final Map<Expr, Integer> locals = new HashMap<>();
 
+    // side table of the calls the Inliner replaced with the callee's return expression
+    private final Map<Expr.Call, Inliner.Inline> inlined = new HashMap<>();
+
+    // side table of the result caches of the functions --memoize found to be pure
+    private final Map<Stmt.Function, Memo> memos = new LinkedHashMap<>();
+
+    // side tables of the super expressions in the methods of each top-level class of the program compiled last, by
+    // the class's name token (see Resolver.superSites), and of the method each of them finds; a site whose method
+    // changed maps to null
+    private final Map<Token, List<Expr.Super>> superSites = new HashMap<>();
+    private final Map<Expr.Super, LoxFunction> superTargets = new HashMap<>();
+
 
     Interpreter(){
         globals.define("clock", new LoxCallable() {
@@ -51,9 +69,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Void visitWhileStmt(Stmt.While stmt){
 
         while(isTruthy(evaluate(stmt.condition))){
+            if (Coverage.active) Coverage.branch(stmt, true);
             execute(stmt.body);
         }
 
+        if (Coverage.active) Coverage.branch(stmt, false);
+
         return null;
     }
     
@@ -61,7 +82,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // if statements
     @Override
     public Void visitIfStmt(Stmt.If stmt){
-        if (isTruthy(evaluate(stmt.condition))){
+
+        boolean condition = isTruthy(evaluate(stmt.condition));
+        if (Coverage.active) Coverage.branch(stmt, condition);
+
+        if (condition){
             execute(stmt.thenBranch);
         }else if (stmt.elseBranch != null){
             execute(stmt.elseBranch);
@@ -126,10 +151,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         if(superclass != null) environment = environment.enclosing;
 
+        List<Expr.Super> sites = superSites.isEmpty() ? null : superSites.get(stmt.name);
+        if (sites != null) devirtualize(sites, (LoxClass) superclass);
+
         environment.assign(stmt.name, klass);
         return null;
     }
 
+    // finds the methods the super expressions of a top-level class call. the class statement runs once, so its
+    // superclass and the method each site finds never change; only --watch runs it again, and a site that then
+    // finds another method goes back to looking it up
+    private void devirtualize(List<Expr.Super> sites, LoxClass superclass){
+
+        for (Expr.Super site : sites){
+
+            LoxFunction target = superclass.findMethod(site.method.lexeme);
+            if (superTargets.containsKey(site) && superTargets.get(site) != target) target = null;
+
+            superTargets.put(site, target);
+
+        }
+
+    }
+
+    // how many variable references the resolver has resolved to locals, for Metrics
+    int resolvedLocals(){
+        return locals.size();
+    }
+
+    // the environment of the code running now, for Census
+    Environment environment(){
+        return environment;
+    }
+
     // helper function for block statements
     void executeBlock(List<Stmt> statements, Environment environment){
 
@@ -176,6 +230,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitSuperExpr(Expr.Super expr){
 
         int distance  = locals.get(expr);
+
+        LoxFunction target = superTargets.isEmpty() ? null : superTargets.get(expr);
+        if (target != null) return target.bind((LoxInstance) environment.getAt(distance - 1, "this"));
         LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
         
         LoxInstance object = (LoxInstance) environment.getAt(distance -1, "this"); 
@@ -200,14 +257,76 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitCallExpr(Expr.Call expr){
 
-        Object callee = evaluate(expr.callee);
+        // the inlined expression stands in for the call only while the global still holds the function it came from
+        Inliner.Inline inline = inlined.isEmpty() ? null : inlined.get(expr);
+        if (inline != null && inline.holds(globals.getAt(0, inline.name))) return evaluate(inline.body);
+
+        if (expr.callee.kind == Expr.Kind.GET) return invokeMethod(expr, (Expr.Get) expr.callee);
+        if (expr.callee.kind == Expr.Kind.SUPER) return invokeSuper(expr, (Expr.Super) expr.callee);
+
+        return call(expr, evaluate(expr.callee));
+
+    }
+
+    // a call of a method of an instance calls the method with the instance as "this" directly, instead of creating
+    // the bound method that the get alone would give. a field of the same name is called like any other value; the
+    // errors and the order of evaluation are those of the get followed by the call
+    private Object invokeMethod(Expr.Call expr, Expr.Get get){
+
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)){
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+
+        LoxInstance instance = (LoxInstance) object;
+        if (Stats.enabled) Stats.gets++;
+
+        LoxFunction method = instance.method(get.name.lexeme);
+        if (method == null) return call(expr, instance.get(get.name));
+
+        List<Object> arguments = arguments(expr);
+        checkArity(expr, method, arguments);
+
+        return perform(expr, method, instance, arguments);
+
+    }
+
+    // the same for a call of a super method whose method is known (see devirtualize)
+    private Object invokeSuper(Expr.Call expr, Expr.Super callee){
+
+        LoxFunction target = superTargets.isEmpty() ? null : superTargets.get(callee);
+        if (target == null) return call(expr, evaluate(callee));
 
+        LoxInstance instance = (LoxInstance) environment.getAt(locals.get(callee) - 1, "this");
+
+        List<Object> arguments = arguments(expr);
+        checkArity(expr, target, arguments);
+
+        return perform(expr, target, instance, arguments);
+
+    }
+
+    private List<Object> arguments(Expr.Call expr){
 
         List<Object> arguments = new ArrayList<>();
         for(Expr argument: expr.arguments){
             arguments.add(evaluate(argument));
         }
 
+        return arguments;
+
+    }
+
+    private void checkArity(Expr.Call expr, LoxCallable function, List<Object> arguments){
+        if (arguments.size() != function.arity()){
+            throw new RuntimeError(expr.paren,"Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+    }
+
+    private Object call(Expr.Call expr, Object callee){
+
+        List<Object> arguments = arguments(expr);
+
         if(!(callee instanceof LoxCallable)){
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
@@ -215,14 +334,36 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         LoxCallable function = (LoxCallable)callee;
 
         // checking function's arity
-        if (arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren,"Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
-        }
+        checkArity(expr, function, arguments);
 
+        return perform(expr, function, null, arguments);
 
+    }
+
+    // makes a checked call, with the instance as "this" if there is one (then function is a LoxFunction); this is
+    // where the tools that watch calls (Stats, Metrics, Tracer, Profiler) see them
+    private Object perform(Expr.Call expr, LoxCallable function, LoxInstance instance, List<Object> arguments){
+
+        if (Stats.enabled) Stats.calls++;
+        if (Metrics.enabled) Metrics.call();
+        if (Tracer.active) Tracer.call(expr.paren.line());
+
+        Object result;
+        if (!Profiler.active){
+            result = instance == null ? function.call(this, arguments) : ((LoxFunction) function).invoke(this, instance, arguments);
+        }else{
+
+            Profiler.enter(function, expr.paren.line());
+            try{
+                result = instance == null ? function.call(this, arguments) : ((LoxFunction) function).invoke(this, instance, arguments);
+            }finally{
+                Profiler.exit();
+            }
 
-        return function.call(this, arguments);
+        }
 
+        if (Tracer.active) Tracer.ret(expr.paren.line());
+        return result;
 
     }
 
@@ -231,6 +372,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance){
+            if (Stats.enabled) Stats.gets++;
             return ((LoxInstance) object).get(expr.name);
         }
 
@@ -279,14 +421,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         
         Object left = evaluate(expr.left);
         
-        if (expr.operator.type == TokenType.OR){
-
-            if (isTruthy(left)) return left;
-
-        }else {
+        boolean skip = expr.operator.type == TokenType.OR ? isTruthy(left) : !isTruthy(left);
+        if (Coverage.active) Coverage.branch(expr, !skip);
 
-            if (!isTruthy(left)) return left;
-        }
+        if (skip) return left;
 
         return evaluate(expr.right);
     }
@@ -300,6 +438,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
+        if (Stats.enabled) Stats.sets++;
         ((LoxInstance) object).set(expr.name, value);
         return value;
     }
@@ -327,6 +466,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case MINUS:
 
                 checkNumberOperand(expr.operator, right);
+                if (Allocations.active) Allocations.record(Allocations.NUMBER);
                 return -(double)right;
         
         }
@@ -372,14 +512,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case MINUS:
             
                 checkNumberOperands(expr.operator, left, right);
+                if (Allocations.active) Allocations.record(Allocations.NUMBER);
                 return (double)left - (double)right;
 
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
+                    if (Allocations.active) Allocations.record(Allocations.NUMBER);
                     return (double)left + (double)right;
                 } 
 
                 if (left instanceof String && right instanceof String) {
+                    if (Allocations.active) Allocations.record(Allocations.STRING);
                     return (String)left + (String)right;
                 }
 
@@ -387,10 +530,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
+                if (Allocations.active) Allocations.record(Allocations.NUMBER);
                 return (double)left / (double)right;
 
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
+                if (Allocations.active) Allocations.record(Allocations.NUMBER);
                 return (double)left * (double)right;
             
         }
@@ -451,12 +596,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     //evaluate: calls the expression's accept method allowing the expression to call the appropriate type of method
     private Object evaluate(Expr expr){
 
-        return expr.accept(this);
+        if (!SWITCH_DISPATCH) return expr.accept(this);
+
+        // Expr is sealed and kind names its class, so this switch covers every node without a default
+        return switch (expr.kind) {
+            case ASSIGN -> visitAssignExpr((Expr.Assign) expr);
+            case BINARY -> visitBinaryExpr((Expr.Binary) expr);
+            case CALL -> visitCallExpr((Expr.Call) expr);
+            case GET -> visitGetExpr((Expr.Get) expr);
+            case GROUPING -> visitGroupingExpr((Expr.Grouping) expr);
+            case LITERAL -> visitLiteralExpr((Expr.Literal) expr);
+            case LOGICAL -> visitLogicalExpr((Expr.Logical) expr);
+            case SET -> visitSetExpr((Expr.Set) expr);
+            case SUPER -> visitSuperExpr((Expr.Super) expr);
+            case THIS -> visitThisExpr((Expr.This) expr);
+            case UNARY -> visitUnaryExpr((Expr.Unary) expr);
+            case VARIABLE -> visitVariableExpr((Expr.Variable) expr);
+        };
 
     }
 
     //isTruthy: determines what value is truth and coversely what is falsey
-    private boolean isTruthy(Object object){
+    static boolean isTruthy(Object object){
 
         // only null (nil) and false are falsey
 
@@ -467,7 +628,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     }
 
-    private boolean isEqual(Object a, Object b){
+    static boolean isEqual(Object a, Object b){
 
         if (a == null && b == null) return true;
         if (a==null) return false;
@@ -476,7 +637,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     }
 
-    private String stringify(Object object){
+    static String stringify(Object object){
 
         if(object == null) return "nil";
 
@@ -498,9 +659,46 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
-    // calls the accept method of statements
+    // calls the accept method of statements (or the visit method directly, see evaluate)
     private void execute(Stmt stmt){
-        stmt.accept(this);
+
+        if (Stats.enabled) Stats.statements++;
+        if (Tracer.active) Tracer.statement(stmt);
+        if (Coverage.active) Coverage.statement(stmt);
+
+        if (!Allocations.active){
+            dispatch(stmt);
+            return;
+        }
+
+        int previous = Allocations.enter(stmt);
+        try{
+            dispatch(stmt);
+        }finally{
+            Allocations.leave(previous);
+        }
+
+    }
+
+    private void dispatch(Stmt stmt){
+
+        if (!SWITCH_DISPATCH){
+            stmt.accept(this);
+            return;
+        }
+
+        Void done = switch (stmt.kind) {
+            case BLOCK -> visitBlockStmt((Stmt.Block) stmt);
+            case CLASS -> visitClassStmt((Stmt.Class) stmt);
+            case EXPRESSION -> visitExpressionStmt((Stmt.Expression) stmt);
+            case FUNCTION -> visitFunctionStmt((Stmt.Function) stmt);
+            case IF -> visitIfStmt((Stmt.If) stmt);
+            case PRINT -> visitPrintStmt((Stmt.Print) stmt);
+            case RETURN -> visitReturnStmt((Stmt.Return) stmt);
+            case VAR -> visitVarStmt((Stmt.Var) stmt);
+            case WHILE -> visitWhileStmt((Stmt.While) stmt);
+        };
+
     }
 
     // tells the interpreter how deep the resolvrd variables value is (the scope)
@@ -508,4 +706,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         locals.put(expr, depth);
     }
 
+    void inline(Expr.Call call, Inliner.Inline inline){
+        inlined.put(call, inline);
+    }
+
+    void memoize(Stmt.Function function){
+        memos.put(function, new Memo(function.name.lexeme));
+    }
+
+    // the cache for function, or null if it is not memoized
+    Memo memo(Stmt.Function function){
+        return memos.isEmpty() ? null : memos.get(function);
+    }
+
+    Collection<Memo> memos(){
+        return memos.values();
+    }
+
+    // replaces the super sites with those of the program just compiled, so the tables do not grow with every REPL line
+    // or --watch rerun; the sites of earlier programs fall back to looking their method up
+    void superSites(Map<Token, List<Expr.Super>> sites){
+        superSites.clear();
+        superTargets.clear();
+        superSites.putAll(sites);
+    }
+
+    // the depth recorded for expr, or null if it refers to a global
+    Integer depth(Expr expr){
+        return locals.get(expr);
+    }
+
+    // drops the resolutions of statements that are no longer part of the program
+    void forget(Map<Expr, Integer> resolved){
+        locals.keySet().removeAll(resolved.keySet());
+    }
+
+    // merges resolutions recorded by a Resolver that ran on another thread
+    void resolveAll(Map<Expr, Integer> resolved){
+        locals.putAll(resolved);
+    }
+
 }
@@ -0,0 +1,102 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+// the body of a function parsed with --lazy: only the token range of the body is kept until the function is first
+// called, then the body is parsed and resolved (see LoxFunction.call). anything that reads the statements before
+// then gets them parsed but not resolved
+class LazyBody extends AbstractList<Stmt> {
+
+    private final List<Token> tokens;
+
+    // the body is tokens[start, end); end is the closing brace
+    private final int start;
+    private final int end;
+
+    // the function the body belongs to, for reporting errors found when it is compiled
+    private final Token name;
+
+    private List<Stmt> statements = null;
+
+    // set by the Resolver when it reaches the function; resolves the body in the scopes it could see there
+    private Consumer<Interpreter> resolution = null;
+
+    LazyBody(List<Token> tokens, int start, int end, Token name){
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.name = name;
+    }
+
+    boolean isParsed(){
+        return statements != null;
+    }
+
+    void defer(Consumer<Interpreter> resolution){
+        this.resolution = resolution;
+    }
+
+    // parses and resolves the body if that has not happened yet
+    void compile(Interpreter interpreter){
+
+        if (resolution == null && statements != null) return;
+
+        Consumer<Interpreter> pending = resolution;
+        resolution = null;
+
+        List<String> errors = new ArrayList<>();
+        List<String> previous = Lox.deferErrors(errors);
+
+        // the recognizer reported every syntax error at load time, and a program with one does not run, so the errors
+        // found here are the resolver's; a body that has them is compiled again (and fails again) on the next call
+        try{
+            statements();
+            if (!errors.isEmpty()){
+                statements = null;
+                resolution = pending;
+            }else if (pending != null){
+                pending.accept(interpreter);
+            }
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+        // the eager pipeline would not have run the program at all, so stop it here
+        if (!errors.isEmpty()){
+            Lox.reportDeferred(errors);
+            throw new RuntimeError(name, "Could not compile function '" + name.lexeme + "'.");
+        }
+
+    }
+
+    private List<Stmt> statements(){
+
+        // the recognizer at load time went through nested bodies too, so they are not checked again
+        if (statements == null){
+            statements = new Parser(tokens, start, end, true, false).parse();
+        }
+
+        return statements;
+
+    }
+
+    @Override
+    public Stmt get(int index){
+        return statements().get(index);
+    }
+
+    @Override
+    public int size(){
+        return statements().size();
+    }
+
+    @Override
+    public Iterator<Stmt> iterator(){
+        return statements().iterator();
+    }
+
+}
@@ -0,0 +1,47 @@
+package lox;
+
+// the source line of a node, for the tools that report by line (see Allocations and Coverage)
+class Lines {
+
+    // the line of the first token of stmt that it keeps; 0 for an empty block
+    static int of(Stmt stmt){
+
+        if (stmt == null) return 0;
+
+        return switch (stmt.kind) {
+            case BLOCK -> ((Stmt.Block) stmt).statements.isEmpty() ? 0 : of(((Stmt.Block) stmt).statements.get(0));
+            case CLASS -> ((Stmt.Class) stmt).name.line();
+            case EXPRESSION -> of(((Stmt.Expression) stmt).expression);
+            case FUNCTION -> ((Stmt.Function) stmt).name.line();
+            case IF -> of(((Stmt.If) stmt).condition);
+            case PRINT -> of(((Stmt.Print) stmt).expression);
+            case RETURN -> ((Stmt.Return) stmt).keyword.line();
+            case VAR -> ((Stmt.Var) stmt).name.line();
+            case WHILE -> of(((Stmt.While) stmt).condition);
+        };
+
+    }
+
+    static int of(Expr expr){
+
+        return switch (expr.kind) {
+            case ASSIGN -> ((Expr.Assign) expr).name.line();
+            case BINARY -> ((Expr.Binary) expr).operator.line();
+            case CALL -> {
+                int callee = of(((Expr.Call) expr).callee);
+                yield callee != 0 ? callee : ((Expr.Call) expr).paren.line();
+            }
+            case GET -> ((Expr.Get) expr).name.line();
+            case GROUPING -> of(((Expr.Grouping) expr).expression);
+            case LITERAL -> ((Expr.Literal) expr).token.line();
+            case LOGICAL -> ((Expr.Logical) expr).operator.line();
+            case SET -> ((Expr.Set) expr).name.line();
+            case SUPER -> ((Expr.Super) expr).keyword.line();
+            case THIS -> ((Expr.This) expr).keyword.line();
+            case UNARY -> ((Expr.Unary) expr).operator.line();
+            case VARIABLE -> ((Expr.Variable) expr).name.line();
+        };
+
+    }
+
+}
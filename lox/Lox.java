@@ -5,9 +5,15 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-    
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 
 public class Lox {
 
@@ -15,33 +21,325 @@ public class Lox {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
+    // --parallel: scan, parse and resolve large sources on the fork-join pool
+    private static boolean parallel = false;
+
+    // --lazy: parse and resolve function bodies on their first call
+    private static boolean lazy = false;
+
+    // --cache: load resolved trees from, and save them to, the AST cache (see AstCache)
+    private static boolean cache = false;
+
+    // --watch: rerun the script every time it changes, recompiling only what the change touched
+    private static boolean watch = false;
+
+    // --flat: encode the resolved program into a FlatAst and run that instead of the tree
+    private static boolean flat = false;
+    private static final FlatInterpreter flatInterpreter = new FlatInterpreter(interpreter);
+
+    // --optimize: run the optimizer passes over the resolved tree; --opt-report: print what they did
+    private static boolean optimize = false;
+    private static boolean optReport = false;
+
+    // --memoize: cache the results of functions the resolver finds to be pure (see Purity and Memo)
+    private static boolean memoize = false;
+
+    // --warn: report the dead code and unused locals that --optimize removes (see DeadCode)
+    private static boolean warn = false;
+
+    // --stats: report the time and allocations of each phase and the runtime counters (see Stats) to stderr;
+    // --stats=json: the same as one JSON object
+    private static boolean statsJson = false;
+
+    // --profile <file>: sample the Lox call stack while the program runs and write it to file (see Profiler)
+    private static Path profile = null;
+
+    // --allocations: count what the program allocates by source line and report it (see Allocations)
+    private static boolean allocations = false;
+
+    // --census: define the native census(), which prints a histogram of what the program holds (see Census), and
+    // take one more census when the script ends; --census=<file>: also write every object reached to file
+    private static boolean census = false;
+    private static Path censusDump = null;
+
+    // --coverage <file>: record which statements and branches run and write them to file as LCOV (see Coverage)
+    private static Path coverage = null;
+
+    // false in the REPL, where a later line can redefine any global; the passes that must see every assignment to
+    // a global are skipped then
+    private static boolean wholeProgram = true;
+
+    // how often --watch looks at the script
+    private static final long WATCH_INTERVAL = 200;
+
+    // while set for the current thread, errors are collected here instead of being printed (see deferErrors)
+    private static final ThreadLocal<List<String>> deferredErrors = new ThreadLocal<>();
+
     public static void main(String[] args) throws IOException{
-        if (args.length > 1){
 
-            System.out.println("Usage: jlox[script]");
-            System.exit(64);
+        String script = null;
+        String precompile = null;
+
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if (arg.equals("--parallel")){
+                parallel = true;
+            }else if (arg.equals("--lazy")){
+                lazy = true;
+            }else if (arg.equals("--cache")){
+                cache = true;
+            }else if (arg.equals("--watch")){
+                watch = true;
+            }else if (arg.equals("--flat")){
+                flat = true;
+            }else if (arg.equals("--optimize")){
+                optimize = true;
+            }else if (arg.equals("--opt-report")){
+                optimize = true;
+                optReport = true;
+            }else if (arg.equals("--memoize")){
+                optimize = true;
+                memoize = true;
+            }else if (arg.equals("--warn")){
+                optimize = true;
+                warn = true;
+            }else if (arg.equals("--stats") || arg.equals("--stats=json")){
+                Stats.enabled = true;
+                statsJson = arg.equals("--stats=json");
+            }else if (arg.equals("--profile") && i + 1 < args.length){
+                profile = Paths.get(args[++i]);
+                Profiler.active = true;
+            }else if (arg.equals("--allocations")){
+                allocations = true;
+                Allocations.active = true;
+            }else if (arg.equals("--census")){
+                census = true;
+            }else if (arg.startsWith("--census=")){
+                census = true;
+                censusDump = Paths.get(arg.substring("--census=".length()));
+            }else if (arg.equals("--coverage") && i + 1 < args.length){
+                coverage = Paths.get(args[++i]);
+                Coverage.active = true;
+            }else if (arg.equals("--metrics")){
+                Metrics.register();
+            }else if (arg.equals("--trace")){
+                Tracer.active = true;
+            }else if (arg.equals("--precompile") && i + 1 < args.length){
+                precompile = args[++i];
+            }else if (arg.startsWith("--") || script != null){
+                usage();
+            }else{
+                script = arg;
+            }
+        }
+
+        // only the tree interpreter tracks the line allocations are counted by
+        if (allocations) flat = false;
+
+        // the same for coverage, which also wants every function body in the tree from the start, and the tree as it
+        // was written: what the optimizer inlines or removes would never run and be reported as dead
+        if (coverage != null){
+            flat = false;
+            lazy = false;
+            optimize = false;
+            optReport = false;
+            memoize = false;
+            warn = false;
+        }
+
+        // the memo tables and the inliner's guards are side tables of the tree interpreter, which the flat encoding
+        // does not carry: --memoize runs on the tree, and with --flat, --optimize runs every pass but the inliner
+        if (memoize && flat){
+            System.err.println("--memoize runs on the tree interpreter; ignoring --flat.");
+            flat = false;
+        }
 
-        }else if (args.length == 1){
-            runFile(args[0]);
+        if (census) defineCensus();
+
+        // a Java error that ends the program (a stack overflow, say) gets the trace too
+        if (Tracer.active){
+            Thread.setDefaultUncaughtExceptionHandler((thread, error) -> {
+                System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                error.printStackTrace();
+                System.err.print(Tracer.dump());
+            });
+        }
+
+        if (precompile != null){
+            precompile(Paths.get(precompile));
+        }else if (watch && script != null){
+            watch(Paths.get(script));
+        }else if (script != null){
+            runFile(script);
         }else{
             runPrompt();
         }
     }
 
+    private static void usage(){
+        System.out.println("Usage: jlox [--parallel] [--lazy] [--cache] [--flat] [--optimize] [--opt-report] [--memoize] [--warn] [--stats[=json]] [--profile <file>] [--allocations] [--census[=file]] [--coverage <file>] [--trace] [--metrics] [script]");
+        System.out.println("       jlox [--parallel] --precompile <directory>");
+        System.out.println("       jlox --watch <script>");
+        System.out.println("--memoize turns --flat off; with --flat, --optimize does not inline calls.");
+        System.exit(64);
+    }
+
     // runs the file given by converting it into bytes then running the run() function
     private static void runFile(String path) throws IOException{ 
 
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        String source = new String(bytes, Charset.defaultCharset());
+
+        if (cache){
+            runCached(Paths.get(path), source);
+        }else{
+            run(source);
+        }
+
+        if (Stats.enabled) System.err.print(Stats.report(statsJson) + (statsJson ? System.lineSeparator() : ""));
+        if (profile != null) Profiler.write(profile);
+        if (allocations) System.err.print(Allocations.report(source));
+        if (census) takeCensus();
+        if (coverage != null) Coverage.write(coverage, Paths.get(path));
 
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
 
     }
 
+    private static void defineCensus(){
+
+        interpreter.globals.define("census", new LoxCallable() {
+
+            @Override
+            public int arity(){return 0;}
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments){
+                takeCensus();
+                return null;
+            }
+
+            @Override
+            public String toString(){return "<native fn>";}
+
+        });
+
+    }
+
+    // the roots are the globals and the environments of the code running now, in whichever interpreter runs it
+    private static void takeCensus(){
+
+        Census census = new Census(List.of(interpreter.globals, interpreter.environment(), flatInterpreter.environment()));
+        System.err.print(census.histogram());
+
+        if (censusDump == null) return;
+
+        try{
+            census.dump(censusDump);
+        } catch (IOException error){
+            System.err.println("Could not write census " + censusDump + ": " + error.getMessage());
+        }
+
+    }
+
+    // runs the tree stored in the AST cache for this source, compiling and storing it first if there is none
+    private static void runCached(Path script, String source){
+
+        Path file = AstCache.fileFor(script, source);
+        Tracer.setSource(source);
+
+        Stats.Phase load = Stats.begin("load cache");
+        List<Stmt> statements = AstCache.load(file, source, interpreter);
+        Stats.end(load);
+
+        if (Metrics.enabled) Metrics.cache(statements != null);
+
+        if (statements == null){
+
+            // cached trees are always complete, so lazy bodies are not used here
+            statements = compile(source, false);
+            if (statements == null) return;
+
+            AstCache.store(file, source, statements, interpreter);
+
+        }
+
+        execute(statements);
+
+    }
+
+    // writes the AST cache for every .lox file under directory without running them
+    private static void precompile(Path directory) throws IOException{
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.walk(directory)){
+            scripts = files.filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        for (Path script : scripts){
+
+            String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+
+            hadError = false;
+            List<Stmt> statements = compile(source, false);
+
+            if (statements == null){
+                System.err.println("Not cached: " + script);
+                continue;
+            }
+
+            AstCache.store(AstCache.fileFor(script, source), source, statements, interpreter);
+
+        }
+
+        if (hadError) System.exit(65);
+
+    }
+
+    // runs the script, then runs it again after every change; each change is compiled incrementally
+    private static void watch(Path script) throws IOException{
+
+        IncrementalCompiler compiler = new IncrementalCompiler(interpreter);
+        long modified = Files.getLastModifiedTime(script).toMillis();
+
+        String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+        Tracer.setSource(source);
+
+        List<Stmt> statements = compiler.compile(source);
+
+        for (;;){
+
+            if (!hadError) interpreter.interpret(statements);
+
+            try{
+                do{
+                    Thread.sleep(WATCH_INTERVAL);
+                } while (Files.getLastModifiedTime(script).toMillis() == modified);
+            } catch (InterruptedException error){
+                return;
+            }
+
+            modified = Files.getLastModifiedTime(script).toMillis();
+            hadError = false;
+            hadRuntimeError = false;
+
+            source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            Tracer.setSource(source);
+
+            statements = compiler.update(source);
+
+        }
+
+    }
+
     // if no arguments are given to lox then this function runs; you can input one line of code at a time and this function runs it
     private static void runPrompt() throws IOException{
 
+        wholeProgram = false;
+
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
@@ -59,56 +357,254 @@ public class Lox {
 
     private static void run(String source){
 
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens(); 
+        Tracer.setSource(source);
+
+        // the flat encoding needs every body resolved up front
+        List<Stmt> statements = compile(source, lazy && !flat);
+        if (statements == null) return;
+
+        // interprets all of the syntax
+        execute(statements);
+
+    }
+
+    private static void execute(List<Stmt> statements){
+
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+
+        // the optimizer is off while coverage is on, so these are the statements that run
+        if (Coverage.active) Coverage.register(statements);
+
+        Stats.Phase passes = optimize ? Stats.begin("optimize") : null;
+
+        if (optimize){
+            statements = eliminateDeadCode(statements);
+            if (wholeProgram) statements = replaceScalars(statements);
+        }
+
+        if (flat){
+
+            Set<Expr> numeric = optimize && wholeProgram ? inferTypes(statements) : Collections.emptySet();
+            Stats.end(passes);
+
+            Stats.Phase encode = Stats.begin("encode");
+            FlatAst ast = FlatAst.encode(statements, interpreter, numeric);
+            Stats.end(encode);
+
+            Stats.Phase interpret = Stats.begin("interpret");
+            if (Profiler.active) Profiler.start();
+            flatInterpreter.interpret(ast);
+            if (Profiler.active) Profiler.stop();
+            Stats.end(interpret);
+
+        }else{
+
+            if (optimize) optimize(statements);
+            Stats.end(passes);
+
+            Stats.Phase interpret = Stats.begin("interpret");
+            if (Profiler.active) Profiler.start();
+            interpreter.interpret(statements);
+            if (Profiler.active) Profiler.stop();
+            Stats.end(interpret);
+
+            if (optReport) reportMemos();
+
+        }
+
+        if (Metrics.enabled) Metrics.executed(System.nanoTime() - start, interpreter);
+
+    }
+
+    // the passes --optimize runs first, whichever interpreter runs the program, since they rebuild the tree: the
+    // others record their results by the nodes these keep
+    private static List<Stmt> eliminateDeadCode(List<Stmt> statements){
+
+        DeadCode deadCode = new DeadCode(interpreter, warn);
+        List<Stmt> kept = deadCode.eliminate(statements);
+
+        if (optReport) System.err.println("dead code: " + deadCode.removed() + " statements and bindings removed");
+        return kept;
+
+    }
+
+    private static List<Stmt> replaceScalars(List<Stmt> statements){
+
+        ScalarReplacement replacement = new ScalarReplacement(interpreter);
+        List<Stmt> replaced = replacement.replace(statements);
+
+        if (optReport){
+            for (String line : replacement.report()) System.err.println(line);
+        }
+
+        return replaced;
+
+    }
+
+    // the optimizer passes; they only record their results in the interpreter's side tables
+    private static void optimize(List<Stmt> statements){
+
+        Inliner inliner = new Inliner(interpreter);
+        inliner.inline(statements);
+
+        if (optReport){
+            for (String line : inliner.report()) System.err.println(line);
+        }
+
+        if (memoize && wholeProgram){
+
+            // the tree is already resolved; this pass only records what the function bodies do, so the depths go
+            // into a map that is thrown away
+            Purity purity = new Purity();
+            Resolver resolver = new Resolver(new HashMap<>());
+            resolver.trackEffects(purity);
+            resolver.resolve(statements);
+
+            for (Stmt.Function function : purity.infer(statements)){
+                interpreter.memoize(function);
+                if (optReport) System.err.println("[line " + function.name.line() + "] memoizing '" + function.name.lexeme + "'");
+            }
+
+        }
+
+    }
+
+    // the pass --optimize runs for --flat: the operators it proves only see numbers are encoded without their checks
+    private static Set<Expr> inferTypes(List<Stmt> statements){
+
+        TypeInference types = new TypeInference();
+        Set<Expr> numeric = types.infer(statements);
+
+        if (optReport) System.err.println(types.report());
+        return numeric;
+
+    }
+
+    private static void reportMemos(){
+        for (Memo memo : interpreter.memos()){
+            System.err.println(memo);
+        }
+    }
+
+    // scans, parses and resolves source; returns null if any of that reported an error
+    private static List<Stmt> compile(String source, boolean lazy){
+
+        Stats.Phase scan = Stats.begin("scan");
+        List<Token> tokens = parallel ? new ParallelScanner(source).scanTokens() : new Scanner(source).scanTokens();
+        Stats.end(scan);
 
         //parses the list of tokens
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        Stats.Phase parse = Stats.begin("parse");
+        List<Stmt> statements = parallel
+            ? new ParallelParser(tokens, lazy).parse()
+            : new Parser(tokens, 0, tokens.size() - 1, lazy, lazy).parse();
+        Stats.end(parse);
+
+        Stats.countTokens(tokens);
+        Stats.countNodes(statements);
 
         // stop if there is a syntax error
-        if (hadError)return;
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+        Stats.Phase resolve = Stats.begin("resolve");
+        if (parallel){
+            new ParallelResolver(interpreter).resolve(statements);
+        }else{
+            Resolver resolver = new Resolver(interpreter);
+            resolver.resolve(statements);
+            interpreter.superSites(resolver.superSites());
+        }
+        Stats.end(resolve);
 
         // checking if any resolution errors occurred
-        if(hadError) return;
-
+        if (hadError) return null;
 
-        // interprets all of the syntax
-        interpreter.interpret(statements);
+        return statements;
 
     }
 
     // recieves info of the error and calls report
     static void error(int line, String message){
-        report(line,"", message);
+        error(line, 0, message);
+    }
+
+    // the same with the column the error is at; 0 if unknown
+    static void error(int line, int column, String message){
+        report(line, column, "", message);
     }
 
     // same function as above; this one is for the parser
     static void error(Token token, String message){
 
         if(token.type == TokenType.EOF){
-            report(token.line, " at end", message);
+            report(token.line(), token.column(), " at end", message);
         } else {
-            report(token.line, " at'" + token.lexeme + "'", message);
+            report(token.line(), token.column(), " at'" + token.lexeme + "'", message);
         }
 
 
     }
 
+    // prints a warning about token; unlike an error it does not stop the program
+    static void warning(Token token, String message){
+        System.err.println(location(token.line(), token.column()) + " Warning at '" + token.lexeme + "': " + message);
+    }
+
     // prints error messages to the console
-    private static void report(int line, String where, String message){
+    private static void report(int line, int column, String where, String message){
+
+        String error = location(line, column) + " Error" + where + ": " + message;
 
-        System.err.println("[line " + line + "] Error" + where + ": " + message );
+        List<String> deferred = deferredErrors.get();
+        if (deferred != null){
+            deferred.add(error);
+            return;
+        }
+
+        System.err.println(error);
         hadError = true;
 
     }
 
+    // makes errors reported on this thread go into buffer until restoreErrors; returns the buffer it replaced
+    static List<String> deferErrors(List<String> buffer){
+        List<String> previous = deferredErrors.get();
+        deferredErrors.set(buffer);
+        return previous;
+    }
+
+    static void restoreErrors(List<String> previous){
+        deferredErrors.set(previous);
+    }
+
+    // prints errors collected by deferErrors; callers flush the buffers of parallel work in source order
+    static void reportDeferred(List<String> errors){
+        for (String error : errors){
+            System.err.println(error);
+            hadError = true;
+        }
+    }
+
     static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        LoxEvents.error(error);
+        System.err.println(error.getMessage() + "\n" + location(error.token.line(), error.token.column()));
+        if (Tracer.active) System.err.print(Tracer.dump());
+        if (Metrics.enabled) Metrics.error();
         hadRuntimeError = true;
     }
+
+    private static String location(int line, int column){
+        if (column == 0) return "[line " + line + "]";
+        return "[line " + line + ", column " + column + "]";
+    }
+
+    // an error as report formats it, for code that moved lineDelta lines down since it was reported
+    static String moveError(String error, int lineDelta){
+        int start = "[line ".length();
+        int end = start;
+        while (end < error.length() && Character.isDigit(error.charAt(end))) end++;
+        int line = Integer.parseInt(error.substring(start, end));
+        return "[line " + (line + lineDelta) + error.substring(end);
+    }
 }
 
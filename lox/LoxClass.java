@@ -1,5 +1,7 @@
 package lox;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 
@@ -10,23 +12,27 @@ class LoxClass implements LoxCallable{
     final LoxClass superclass;
 
 
+    // methods also gets the inherited methods it does not override: neither class can change its methods, so
+    // findMethod is one lookup however deep the hierarchy is
     LoxClass(String name, LoxClass superclass , Map<String, LoxFunction> methods){
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
-    }
 
-    LoxFunction findMethod(String name){
-        
-        if (methods.containsKey(name)){
-            return methods.get(name);
+        if (superclass == null){
+            this.methods = methods;
+        }else{
+            this.methods = new HashMap<>(superclass.methods);
+            this.methods.putAll(methods);
         }
+    }
 
-        if(superclass != null){
-            return superclass.findMethod(name);
-        }
+    LoxFunction findMethod(String name){
+        return methods.get(name);
+    }
 
-        return null;
+    // its methods and the inherited ones, for Census
+    Collection<LoxFunction> methods(){
+        return methods.values();
     }
 
     @Override
@@ -38,6 +44,7 @@ class LoxClass implements LoxCallable{
     public Object call(Interpreter interpreter, List<Object> arguments){
 
         LoxInstance instance = new LoxInstance(this);
+        LoxEvents.instantiation(this);
 
         LoxFunction initializer = findMethod("init");
 
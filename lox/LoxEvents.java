@@ -0,0 +1,115 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// the Java Flight Recorder events of the interpreter, so that a recording shows what the Lox program did next to the
+// GC and JIT events of the same time. each type is switched on and off by name in the recording's settings, e.g.
+//
+//     java -XX:StartFlightRecording:filename=run.jfr,+lox.Call#enabled=true -jar jlox.jar script.lox
+//
+// lox.Call is off by default since a program makes many calls; the others are on. the interpreter asks whether a
+// type is enabled (two field reads) before creating an event, so a type that no recording enables costs only that.
+// looking up an event type starts the flight recorder, which adds a few hundred milliseconds to the JVM's startup,
+// so the types are not looked up until a recording has started
+final class LoxEvents {
+
+    private LoxEvents(){}
+
+    // loaded on first use, which enabled only allows once the recorder is up
+    private static final class Types {
+        static final EventType CALL = EventType.getEventType(Call.class);
+        static final EventType INSTANTIATION = EventType.getEventType(Instantiation.class);
+        static final EventType ERROR = EventType.getEventType(Failure.class);
+        static final EventType PHASE = EventType.getEventType(Phase.class);
+    }
+
+    static boolean callsEnabled(){
+        return FlightRecorder.isInitialized() && Types.CALL.isEnabled();
+    }
+
+    static boolean phasesEnabled(){
+        return FlightRecorder.isInitialized() && Types.PHASE.isEnabled();
+    }
+
+    @Name("lox.Call")
+    @Label("Lox Call")
+    @Category("Lox")
+    @Description("A call of a Lox function or method, from the call to its return")
+    @Enabled(false)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Call extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        @Description("The line the function is declared on")
+        int line;
+
+    }
+
+    @Name("lox.Instantiation")
+    @Label("Lox Instantiation")
+    @Category("Lox")
+    @Description("A new instance of a Lox class")
+    @StackTrace(false)
+    static final class Instantiation extends Event {
+
+        @Label("Class")
+        String className;
+
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @Description("A runtime error that stopped the Lox program")
+    @StackTrace(false)
+    static final class Failure extends Event {
+
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+
+    }
+
+    @Name("lox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("One phase of running a script: scanning, parsing, resolving, optimizing or interpreting")
+    @StackTrace(false)
+    static final class Phase extends Event {
+
+        @Label("Phase")
+        String name;
+
+    }
+
+    static void instantiation(LoxClass klass){
+        if (!FlightRecorder.isInitialized() || !Types.INSTANTIATION.isEnabled()) return;
+        Instantiation event = new Instantiation();
+        event.className = klass.name;
+        event.commit();
+    }
+
+    static void error(RuntimeError error){
+        if (!FlightRecorder.isInitialized() || !Types.ERROR.isEnabled()) return;
+        Failure event = new Failure();
+        event.message = error.getMessage();
+        event.line = error.token.line();
+        event.commit();
+    }
+
+}
@@ -13,15 +13,73 @@ class LoxFunction implements LoxCallable{
         this.isInitializer = isInitializer;
     }
 
+    // whether this function was created from declaration (bound or not); used to guard inlined calls
+    boolean declaredBy(Stmt.Function declaration){
+        return this.declaration == declaration;
+    }
+
+    // the name the function was declared with
+    String name(){
+        return declaration.name.lexeme;
+    }
+
+    // the environment the function captured (with "this" in it, if bound)
+    Environment closure(){
+        return closure;
+    }
+
     // creates a new LoxFunction with "this" bound to the given instance (for methods)
     LoxFunction bind(LoxInstance instance){
+        if (Stats.enabled) Stats.binds++;
+        if (Allocations.active) Allocations.record(Allocations.BOUND_METHOD);
         Environment environment = new Environment(closure);
         environment.define("this", instance);
         return new LoxFunction(declaration, environment,isInitializer);
     }
 
+    // calls the method with "this" bound to instance, without creating the bound function first
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments){
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
+        return call(interpreter, arguments, environment);
+    }
+
     @Override 
     public Object call(Interpreter interpreter, List<Object> arguments){
+        return call(interpreter, arguments, closure);
+    }
+
+    // closure is the function's own, or the one invoke made to bind "this"
+    private Object call(Interpreter interpreter, List<Object> arguments, Environment closure){
+
+        if (!LoxEvents.callsEnabled()) return run(interpreter, arguments, closure);
+
+        LoxEvents.Call event = new LoxEvents.Call();
+        event.begin();
+
+        try{
+            return run(interpreter, arguments, closure);
+        }finally{
+            event.end();
+            if (event.shouldCommit()){
+                event.function = name();
+                event.line = declaration.name.line();
+                event.commit();
+            }
+        }
+
+    }
+
+    private Object run(Interpreter interpreter, List<Object> arguments, Environment closure){
+
+        // a body skipped by the lazy parser is parsed and resolved on the first call
+        if (declaration.body instanceof LazyBody) ((LazyBody) declaration.body).compile(interpreter);
+
+        Memo memo = interpreter.memo(declaration);
+        if (memo != null){
+            Object cached = memo.lookup(arguments);
+            if (cached != Memo.MISSING) return cached;
+        }
 
         // creating a local environment with the enclosing scope as its parent
         Environment environment = new Environment(closure);
@@ -36,10 +94,13 @@ class LoxFunction implements LoxCallable{
 
             if(isInitializer) return closure.getAt(0, "this");
 
+            if (memo != null) memo.store(arguments, returnValue.value);
             return returnValue.value;
         }
 
         if(isInitializer)return closure.getAt(0, "this");
+
+        if (memo != null) memo.store(arguments, null);
         return null;
     }
 
@@ -11,6 +11,7 @@ public class LoxInstance {
 
     LoxInstance(LoxClass klass){
         this.klass = klass;
+        if (Allocations.active) Allocations.record(Allocations.INSTANCE);
     }
 
     Object get(Token name){
@@ -25,6 +26,21 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme +"'.");
     }
 
+    // the method name refers to, or null if a field of that name hides it (or there is no such method)
+    LoxFunction method(String name){
+        if (fields.containsKey(name)) return null;
+        return klass.findMethod(name);
+    }
+
+    // for Census
+    LoxClass klass(){
+        return klass;
+    }
+
+    Map<String, Object> fields(){
+        return fields;
+    }
+
     // puts a new field or updates an existing field
     void set(Token name, Object value){
         fields.put(name.lexeme, value);
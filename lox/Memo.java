@@ -0,0 +1,91 @@
+package lox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// the results of one pure function by argument values (see --memoize), keeping the ones used most recently. only
+// calls whose arguments are all numbers, strings, booleans or nil are cached: those compare by value, and the cache
+// does not keep instances or functions alive
+class Memo {
+
+    // entries per function
+    static final int CAPACITY = 1024;
+
+    // returned by lookup for arguments that have no result yet
+    static final Object MISSING = new Object();
+
+    final String name;
+
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+
+    // calls that could not be cached because of their arguments
+    long skipped = 0;
+
+    private final Map<List<Object>, Object> results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest){
+            if (size() <= CAPACITY) return false;
+            evictions++;
+            return true;
+        }
+
+    };
+
+    Memo(String name){
+        this.name = name;
+    }
+
+    Object lookup(List<Object> arguments){
+
+        if (!cacheable(arguments)){
+            skipped++;
+            return MISSING;
+        }
+
+        Object result = results.get(arguments);
+        if (result != null || results.containsKey(arguments)){
+            hits++;
+            if (Metrics.enabled) Metrics.memo(true);
+            return result;
+        }
+
+        misses++;
+        if (Metrics.enabled) Metrics.memo(false);
+        return MISSING;
+
+    }
+
+    // arguments is the list the call was made with; nothing changes it afterwards, so it is kept as the key
+    void store(List<Object> arguments, Object result){
+        if (cacheable(arguments)) results.put(arguments, result);
+    }
+
+    private static boolean cacheable(List<Object> arguments){
+
+        for (Object argument : arguments){
+            if (argument != null && !(argument instanceof Double) && !(argument instanceof String)
+                    && !(argument instanceof Boolean)){
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    @Override
+    public String toString(){
+
+        long lookups = hits + misses;
+        String rate = lookups == 0 ? "-" : String.format("%.1f%%", 100.0 * hits / lookups);
+
+        return "memo '" + name + "': " + hits + " hits, " + misses + " misses (" + rate + " hit rate), "
+            + evictions + " evictions, " + skipped + " uncacheable calls";
+
+    }
+
+}
@@ -0,0 +1,199 @@
+package lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// the operational metrics of --metrics, for a long-lived process that runs many scripts: registered as the MBean
+// lox:type=Metrics, so jconsole, jcmd or any JMX client on the same machine can read them while it runs. the
+// counters the interpreters bump are LongAdders, which spread concurrent increments over cells instead of contending
+// on one; they are only touched while enabled is set. nothing here reads the interpreter's own tables, which only its
+// thread may touch: the sizes of the globals and of the resolutions are a snapshot that thread publishes after each
+// script
+class Metrics implements MetricsMBean {
+
+    static boolean enabled = false;
+
+    private static final LongAdder scripts = new LongAdder();
+    private static final LongAdder errors = new LongAdder();
+    private static final LongAdder calls = new LongAdder();
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder cacheMisses = new LongAdder();
+    private static final LongAdder memoHits = new LongAdder();
+    private static final LongAdder memoMisses = new LongAdder();
+
+    // as of the last script
+    private static volatile int globals = 0;
+    private static volatile int resolvedLocals = 0;
+
+    // the upper bounds, in milliseconds, of the execution time buckets; the last bucket has none
+    private static final long[] BOUNDS = {1, 10, 100, 1000, 10000};
+
+    private static final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private static final LongAdder totalMillis = new LongAdder();
+
+    static{
+        for (int i = 0; i < buckets.length; i++){
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // the previous read of getCallsPerSecond
+    private long lastCalls = 0;
+    private long lastTime = System.nanoTime();
+
+    private Metrics(){}
+
+    // turns the counters on and registers the MBean
+    static void register(){
+
+        enabled = true;
+
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("lox:type=Metrics");
+            if (!server.isRegistered(name)) server.registerMBean(new Metrics(), name);
+        } catch (JMException error){
+            System.err.println("Could not register the metrics MBean: " + error.getMessage());
+        }
+
+    }
+
+    static void call(){
+        calls.increment();
+    }
+
+    static void error(){
+        errors.increment();
+    }
+
+    static void cache(boolean hit){
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    static void memo(boolean hit){
+        (hit ? memoHits : memoMisses).increment();
+    }
+
+    // a script (or REPL line) that ran for nanos on interpreter; called on its thread
+    static void executed(long nanos, Interpreter interpreter){
+
+        scripts.increment();
+        globals = interpreter.globals.values().size();
+        resolvedLocals = interpreter.resolvedLocals();
+
+        long millis = nanos / 1_000_000;
+        totalMillis.add(millis);
+
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) bucket++;
+        buckets[bucket].increment();
+
+    }
+
+    @Override
+    public long getScriptsExecuted(){
+        return scripts.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors(){
+        return errors.sum();
+    }
+
+    @Override
+    public long getCalls(){
+        return calls.sum();
+    }
+
+    @Override
+    public synchronized double getCallsPerSecond(){
+
+        long now = System.nanoTime();
+        long count = calls.sum();
+
+        double rate = now == lastTime ? 0 : (count - lastCalls) * 1e9 / (now - lastTime);
+
+        lastCalls = count;
+        lastTime = now;
+        return rate;
+
+    }
+
+    @Override
+    public String[] getExecutionTimeBuckets(){
+
+        String[] labels = new String[buckets.length];
+        for (int i = 0; i < BOUNDS.length; i++){
+            labels[i] = "< " + BOUNDS[i] + " ms";
+        }
+
+        labels[BOUNDS.length] = ">= " + BOUNDS[BOUNDS.length - 1] + " ms";
+        return labels;
+
+    }
+
+    @Override
+    public long[] getExecutionTimeCounts(){
+
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++){
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+
+    }
+
+    @Override
+    public long getExecutionTimeTotalMillis(){
+        return totalMillis.sum();
+    }
+
+    @Override
+    public long getAstCacheHits(){
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getAstCacheMisses(){
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getAstCacheHitRate(){
+        return rate(cacheHits.sum(), cacheMisses.sum());
+    }
+
+    @Override
+    public long getMemoHits(){
+        return memoHits.sum();
+    }
+
+    @Override
+    public long getMemoMisses(){
+        return memoMisses.sum();
+    }
+
+    @Override
+    public double getMemoHitRate(){
+        return rate(memoHits.sum(), memoMisses.sum());
+    }
+
+    @Override
+    public int getResolvedLocals(){
+        return resolvedLocals;
+    }
+
+    @Override
+    public int getGlobals(){
+        return globals;
+    }
+
+    private static double rate(long hits, long misses){
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+}
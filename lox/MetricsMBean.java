@@ -0,0 +1,41 @@
+package lox;
+
+// the attributes Metrics exposes over JMX, as lox:type=Metrics. JMX only accepts a public interface for a standard
+// MBean, so this one is public though nothing outside the package implements it
+public interface MetricsMBean {
+
+    long getScriptsExecuted();
+
+    long getRuntimeErrors();
+
+    long getCalls();
+
+    // the calls made since the previous read of this attribute, per second of the time since then
+    double getCallsPerSecond();
+
+    // the execution time histogram: the upper bound of each bucket, and how many runs fell in it
+    String[] getExecutionTimeBuckets();
+
+    long[] getExecutionTimeCounts();
+
+    long getExecutionTimeTotalMillis();
+
+    long getAstCacheHits();
+
+    long getAstCacheMisses();
+
+    double getAstCacheHitRate();
+
+    long getMemoHits();
+
+    long getMemoMisses();
+
+    double getMemoHitRate();
+
+    // the number of resolved local variable references the interpreter keeps, and of globals, as of the end of the
+    // last script
+    int getResolvedLocals();
+
+    int getGlobals();
+
+}
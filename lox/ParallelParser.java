@@ -0,0 +1,126 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// cuts the token list before top-level "fun" and "class" declarations and parses the pieces on the fork-join pool.
+// the statements come back in source order; if any piece has a syntax error the whole file is parsed again
+// sequentially so the errors (and the recovery after them) are exactly those of Parser.parse()
+class ParallelParser {
+
+    // pieces smaller than this many tokens are merged with the next one
+    private static final int MIN_TOKENS = 4096;
+
+    private final List<Token> tokens;
+    private final ForkJoinPool pool;
+
+    // passed on to every Parser, see Parser.lazy
+    private final boolean lazy;
+
+    ParallelParser(List<Token> tokens, boolean lazy){
+        this(tokens, lazy, ForkJoinPool.commonPool());
+    }
+
+    ParallelParser(List<Token> tokens, boolean lazy, ForkJoinPool pool){
+        this.tokens = tokens;
+        this.lazy = lazy;
+        this.pool = pool;
+    }
+
+    List<Stmt> parse(){
+
+        List<Integer> cuts = findDeclarations();
+        if (cuts.size() < 3) return sequential();
+
+        List<ForkJoinTask<Piece>> tasks = new ArrayList<>();
+        for (int i = 0; i < cuts.size() - 1; i++){
+            int from = cuts.get(i);
+            int to = cuts.get(i + 1);
+            tasks.add(pool.submit(() -> parsePiece(from, to)));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        boolean failed = false;
+
+        for (ForkJoinTask<Piece> task : tasks){
+            Piece piece = task.join();
+            failed |= piece.failed;
+            statements.addAll(piece.statements);
+        }
+
+        if (failed) return sequential();
+        return statements;
+
+    }
+
+    private Piece parsePiece(int from, int to){
+
+        List<String> errors = new ArrayList<>();
+        List<String> previous = Lox.deferErrors(errors);
+
+        try{
+            List<Stmt> statements = new Parser(tokens, from, to, lazy, lazy).parse();
+            return new Piece(statements, !errors.isEmpty());
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+    }
+
+    private List<Stmt> sequential(){
+        return new Parser(tokens, 0, tokens.size() - 1, lazy, lazy).parse();
+    }
+
+    // quick pass over the tokens that only tracks brace depth; a "fun" or "class" at depth 0 always starts a
+    // top-level declaration in a well-formed program, so those are the places the token list can be cut
+    private List<Integer> findDeclarations(){
+
+        int eof = tokens.size() - 1;
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+
+        int depth = 0;
+        int last = 0;
+
+        for (int i = 0; i < eof; i++){
+
+            switch (tokens.get(i).type) {
+
+                case LEFT_BRACE: depth++; break;
+                case RIGHT_BRACE: depth--; break;
+
+                case FUN:
+                case CLASS:
+                    if (depth == 0 && i - last >= MIN_TOKENS){
+                        cuts.add(i);
+                        last = i;
+                    }
+                    break;
+
+                default:
+                    break;
+
+            }
+
+        }
+
+        cuts.add(eof);
+        return cuts;
+
+    }
+
+    private static class Piece {
+
+        final List<Stmt> statements;
+        final boolean failed;
+
+        Piece(List<Stmt> statements, boolean failed){
+            this.statements = statements;
+            this.failed = failed;
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// resolves top-level statements in batches on the fork-join pool. the resolver starts every top-level statement
+// with no scopes and ends it the same way, so the batches are independent; their resolutions are merged into the
+// interpreter (with their super sites) and their errors reported in source order, just as Resolver.resolve(statements)
+// would
+class ParallelResolver {
+
+    // batches smaller than this many statements are not worth a task of their own
+    private static final int MIN_BATCH = 64;
+
+    private final Interpreter interpreter;
+    private final ForkJoinPool pool;
+
+    ParallelResolver(Interpreter interpreter){
+        this(interpreter, ForkJoinPool.commonPool());
+    }
+
+    ParallelResolver(Interpreter interpreter, ForkJoinPool pool){
+        this.interpreter = interpreter;
+        this.pool = pool;
+    }
+
+    void resolve(List<Stmt> statements){
+
+        int batch = Math.max(MIN_BATCH, statements.size() / (pool.getParallelism() * 4));
+
+        if (statements.size() <= batch){
+            Resolver resolver = new Resolver(interpreter);
+            resolver.resolve(statements);
+            interpreter.superSites(resolver.superSites());
+            return;
+        }
+
+        List<ForkJoinTask<Batch>> tasks = new ArrayList<>();
+        for (int from = 0; from < statements.size(); from += batch){
+            List<Stmt> slice = statements.subList(from, Math.min(from + batch, statements.size()));
+            tasks.add(pool.submit(() -> resolveBatch(slice)));
+        }
+
+        // each top-level class is in one batch, so the batches' sites do not overlap
+        Map<Token, List<Expr.Super>> superSites = new HashMap<>();
+
+        for (ForkJoinTask<Batch> task : tasks){
+            Batch result = task.join();
+            Lox.reportDeferred(result.errors);
+            interpreter.resolveAll(result.locals);
+            superSites.putAll(result.superSites);
+        }
+
+        interpreter.superSites(superSites);
+
+    }
+
+    private Batch resolveBatch(List<Stmt> statements){
+
+        Map<Expr, Integer> locals = new HashMap<>();
+        List<String> errors = new ArrayList<>();
+        List<String> previous = Lox.deferErrors(errors);
+
+        try{
+            Resolver resolver = new Resolver(locals);
+            resolver.resolve(statements);
+            return new Batch(locals, resolver.superSites(), errors);
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+    }
+
+    private static class Batch {
+
+        final Map<Expr, Integer> locals;
+        final Map<Token, List<Expr.Super>> superSites;
+        final List<String> errors;
+
+        Batch(Map<Expr, Integer> locals, Map<Token, List<Expr.Super>> superSites, List<String> errors){
+            this.locals = locals;
+            this.superSites = superSites;
+            this.errors = errors;
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static lox.TokenType.*;
+
+// splits a large source into chunks that start at a lexeme boundary, scans them on the fork-join pool
+// and stitches the tokens back together; the result is identical to Scanner.scanTokens()
+class ParallelScanner {
+
+    // chunks smaller than this are not worth a task of their own
+    private static final int MIN_CHUNK = 64 * 1024;
+
+    private final String source;
+    private final ForkJoinPool pool;
+
+    // chunk i covers source[offsets[i], offsets[i + 1]) and starts on lines[i]
+    private final List<Integer> offsets = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+
+    ParallelScanner(String source){
+        this(source, ForkJoinPool.commonPool());
+    }
+
+    ParallelScanner(String source, ForkJoinPool pool){
+        this.source = source;
+        this.pool = pool;
+    }
+
+    List<Token> scanTokens(){
+
+        int chunks = Math.min(source.length() / MIN_CHUNK, pool.getParallelism() * 4);
+        if (chunks < 2) return new Scanner(source).scanTokens();
+
+        findBoundaries(source.length() / chunks);
+        if (offsets.size() < 3) return new Scanner(source).scanTokens();
+
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+        for (int i = 0; i < offsets.size() - 1; i++){
+            int from = offsets.get(i);
+            int to = offsets.get(i + 1);
+            int line = lines.get(i);
+            tasks.add(pool.submit(() -> scanChunk(from, to, line)));
+        }
+
+        List<Token> tokens = new ArrayList<>(source.length() / 4);
+        int line = 1;
+
+        for (ForkJoinTask<Chunk> task : tasks){
+            Chunk chunk = task.join();
+
+            // errors are flushed chunk by chunk so they come out in the same order as a sequential scan
+            Lox.reportDeferred(chunk.errors);
+            tokens.addAll(chunk.tokens);
+            line = chunk.line;
+        }
+
+        tokens.add(new Token(EOF, "", null, line));
+        return tokens;
+
+    }
+
+    private Chunk scanChunk(int from, int to, int line){
+
+        List<String> errors = new ArrayList<>();
+        List<String> previous = Lox.deferErrors(errors);
+
+        try{
+            Scanner scanner = new Scanner(source, from, to, line);
+            List<Token> tokens = scanner.scanChunk();
+            return new Chunk(tokens, errors, scanner.line());
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+    }
+
+    // walks the source once tracking only whether the scanner would be inside a string or comment, and cuts after
+    // the first newline past each stride that the scanner would reach at the start of a lexeme.
+    // this mirrors Scanner character for character (including how it ends block comments and that it does not
+    // count lines inside them) but allocates nothing, so it is much cheaper than scanning.
+    private void findBoundaries(int stride){
+
+        int length = source.length();
+        int next = stride;
+        int line = 1;
+        int i = 0;
+
+        offsets.add(0);
+        lines.add(1);
+
+        while (i < length){
+
+            char c = source.charAt(i);
+
+            switch (c) {
+
+                case '\n':
+                    line++;
+                    i++;
+                    if (i >= next && i < length){
+                        offsets.add(i);
+                        lines.add(line);
+                        next = i + stride;
+                    }
+                    break;
+
+                case '"':
+                    i++;
+                    while (i < length && source.charAt(i) != '"'){
+                        if (source.charAt(i) == '\n') line++;
+                        i++;
+                    }
+                    // the closing "
+                    i++;
+                    break;
+
+                case '/':
+                    i++;
+                    if (i < length && source.charAt(i) == '/'){
+                        while (i < length && source.charAt(i) != '\n') i++;
+                    }else if (i < length && source.charAt(i) == '*'){
+                        i = skipBlockComment(i + 1);
+                    }
+                    break;
+
+                default:
+                    i++;
+                    break;
+
+            }
+
+        }
+
+        offsets.add(length);
+
+    }
+
+    // same stopping rule as Scanner.handleBlockComment; returns the index just past the comment
+    private int skipBlockComment(int i){
+
+        int length = source.length();
+
+        while (i < length && source.charAt(i) != '*' && (i + 1 >= length || source.charAt(i + 1) != '/')){
+            i++;
+        }
+
+        if (i >= length) return length;
+        return i + 2;
+
+    }
+
+    private static class Chunk {
+
+        final List<Token> tokens;
+        final List<String> errors;
+        final int line;
+
+        Chunk(List<Token> tokens, List<String> errors, int line){
+            this.tokens = tokens;
+            this.errors = errors;
+            this.line = line;
+        }
+
+    }
+
+}
@@ -9,14 +9,65 @@ import static lox.TokenType.*;
 class Parser {
 
     private static class ParseError extends RuntimeException{}
+
+    // binding power of each binary operator, indexed by TokenType ordinal; PREC_NONE for tokens that are not one
+    private static final int PREC_NONE = 0;
+    private static final int PREC_OR = 1;
+    private static final int PREC_AND = 2;
+    private static final int PREC_EQUALITY = 3;
+    private static final int PREC_COMPARISON = 4;
+    private static final int PREC_TERM = 5;
+    private static final int PREC_FACTOR = 6;
+
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+
+        PRECEDENCE[OR.ordinal()] = PREC_OR;
+        PRECEDENCE[AND.ordinal()] = PREC_AND;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = PREC_EQUALITY;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = PREC_EQUALITY;
+        PRECEDENCE[GREATER.ordinal()] = PREC_COMPARISON;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+        PRECEDENCE[LESS.ordinal()] = PREC_COMPARISON;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = PREC_COMPARISON;
+        PRECEDENCE[MINUS.ordinal()] = PREC_TERM;
+        PRECEDENCE[PLUS.ordinal()] = PREC_TERM;
+        PRECEDENCE[SLASH.ordinal()] = PREC_FACTOR;
+        PRECEDENCE[STAR.ordinal()] = PREC_FACTOR;
+
+    }
     
     private final List<Token> tokens;
     private int current = 0;
 
+    // index of the token the parser treats as the end of input
+    private final int end;
+
+    // lazy: function bodies are only brace-matched and wrapped in a LazyBody
+    private final boolean lazy;
+
+    // validate: each skipped body is checked by the recognizer (see recognize), so that its syntax errors are still
+    // reported at load time
+    private final boolean validate;
+
     Parser (List<Token> tokens){
-        this.tokens = tokens;
+        this(tokens, 0, tokens.size() - 1);
     } 
 
+    // parses only tokens[start, end); used to parse top-level declarations independently
+    Parser (List<Token> tokens, int start, int end){
+        this(tokens, start, end, false, false);
+    }
+
+    Parser (List<Token> tokens, int start, int end, boolean lazy, boolean validate){
+        this.tokens = tokens;
+        this.current = start;
+        this.end = end;
+        this.lazy = lazy;
+        this.validate = validate;
+    }
+
 
     List<Stmt> parse(){
         
@@ -29,6 +80,19 @@ class Parser {
 
     }
 
+    // IncrementalCompiler parses one top-level declaration at a time so it knows which tokens each statement used
+    boolean hasNext(){
+        return !isAtEnd();
+    }
+
+    Stmt next(){
+        return declaration();
+    }
+
+    int position(){
+        return current;
+    }
+
     //declaration -> varDecl | statement | funDecl | classDecl;
     private Stmt declaration(){
 
@@ -106,12 +170,325 @@ class Parser {
 
         // {body}
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+
+        if (lazy) return new Stmt.Function(name, parameters, skipBody(name));
+
         List<Stmt> body = block(); 
         
         return new Stmt.Function(name, parameters, body);
 
     }
 
+    // moves past a function body by matching braces only; the body is parsed when the function is first called
+    private List<Stmt> skipBody(Token name){
+
+        int start = current;
+        int depth = 0;
+
+        while (!isAtEnd() && !(depth == 0 && check(RIGHT_BRACE))){
+
+            if (check(LEFT_BRACE)) depth++;
+            if (check(RIGHT_BRACE)) depth--;
+            advance();
+
+        }
+
+        int bodyEnd = current;
+        consume(RIGHT_BRACE, "Expect '}' after block");
+
+        if (validate) new Parser(tokens, start, bodyEnd, true, true).recognize();
+
+        return new LazyBody(tokens, start, bodyEnd, name);
+
+    }
+
+
+    // the recognizer: validate checks each skipped body against the whole grammar without building anything, so that
+    // every syntax error is reported at load time and a broken body never runs. it consumes the same tokens as the
+    // parser methods of the same rules and reports the same errors, but it runs on every body at startup, mostly
+    // before the JIT has compiled it, so it is written for few calls per token: it switches on the token type instead
+    // of trying one match after another, reads unary, call and primary in one method, and builds no message unless
+    // there is an error. the expression methods return whether what they read can be assigned to (a variable or a
+    // property), which is all assignment needs to know
+
+    private void recognize(){
+        while (current < end) recognizeDeclaration();
+    }
+
+    // the type of the current token; EOF at the end of the range
+    private TokenType type(){
+        return current < end ? tokens.get(current).type : EOF;
+    }
+
+    // consume() without the call to check
+    private void expect(TokenType type, String message){
+        if (type() != type) throw error(peek(), message);
+        current++;
+    }
+
+    private void recognizeDeclaration(){
+
+        try{
+
+            switch (type()) {
+                case CLASS -> {
+                    current++;
+                    recognizeClass();
+                }
+                case FUN -> {
+                    current++;
+                    recognizeFunction("function");
+                }
+                case VAR -> {
+                    current++;
+                    recognizeVar();
+                }
+                default -> recognizeStatement();
+            }
+
+        } catch (ParseError error){
+            synchronize();
+        }
+
+    }
+
+    private void recognizeClass(){
+
+        expect(IDENTIFIER, "Expect class name.");
+
+        if (type() == LESS){
+            current++;
+            expect(IDENTIFIER, "Expect superclass name.");
+        }
+
+        expect(LEFT_BRACE,"Expect '{' before class body.");
+        while (type() != RIGHT_BRACE && type() != EOF) recognizeFunction("method");
+        expect(RIGHT_BRACE, "Expect '}' after class body.");
+
+    }
+
+    // a nested body is recognized in place, so every token of the outermost body is read once
+    private void recognizeFunction(String kind){
+
+        if (type() != IDENTIFIER) throw error(peek(), "Expect "+ kind + "name.");
+        current++;
+        if (type() != LEFT_PAREN) throw error(peek(), "Expect '(' after " + kind + " name.");
+        current++;
+
+        if (type() != RIGHT_PAREN){
+            int parameters = 0;
+            do {
+                if (parameters > 255) error(peek(), "Can't have more than 255 parameters");
+                expect(IDENTIFIER,"Expect parameter name.");
+                parameters++;
+            }while (match(COMMA));
+        }
+
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
+        if (type() != LEFT_BRACE) throw error(peek(), "Expect '{' before " + kind + " body.");
+        current++;
+
+        recognizeBlock();
+
+    }
+
+    private void recognizeVar(){
+
+        expect(IDENTIFIER, "Expect variable name.");
+
+        if (type() == EQUAL){
+            current++;
+            recognizeExpression();
+        }
+
+        expect(SEMICOLON, "Expect  ';' after variable declaration.");
+
+    }
+
+    private void recognizeStatement(){
+
+        switch (type()) {
+
+            case FOR -> {
+
+                current++;
+                expect(LEFT_PAREN, "Expect '(' after 'for'.");
+
+                if (type() == SEMICOLON){
+                    current++;
+                }else if (type() == VAR){
+                    current++;
+                    recognizeVar();
+                }else{
+                    recognizeExpressionStatement();
+                }
+
+                if (type() != SEMICOLON) recognizeExpression();
+                expect(SEMICOLON, "Expect ';' after loop condition.");
+
+                if (type() != RIGHT_PAREN) recognizeExpression();
+                expect(RIGHT_PAREN, "Expect ')' after clauses.");
+
+                recognizeStatement();
+
+            }
+
+            case IF -> {
+
+                current++;
+                expect(LEFT_PAREN, "Expect '(' after 'if'.");
+                recognizeExpression();
+                expect(RIGHT_PAREN, "Expect ')' after if condition.");
+
+                recognizeStatement();
+
+                if (type() == ELSE){
+                    current++;
+                    recognizeStatement();
+                }
+
+            }
+
+            case PRINT -> {
+                current++;
+                recognizeExpression();
+                expect(SEMICOLON, "Expect ';' after value.");
+            }
+
+            case RETURN -> {
+                current++;
+                if (type() != SEMICOLON) recognizeExpression();
+                expect(SEMICOLON, "Expect ';' after return value.");
+            }
+
+            case WHILE -> {
+                current++;
+                expect(LEFT_PAREN, "Expect '(' after 'while'.");
+                recognizeExpression();
+                expect(RIGHT_PAREN, "eXPECT ')' after condition.");
+                recognizeStatement();
+            }
+
+            case LEFT_BRACE -> {
+                current++;
+                recognizeBlock();
+            }
+
+            default -> recognizeExpressionStatement();
+
+        }
+
+    }
+
+    private void recognizeExpressionStatement(){
+        recognizeExpression();
+        expect(SEMICOLON, "Expect ';' after expression.");
+    }
+
+    private void recognizeBlock(){
+        while (type() != RIGHT_BRACE && type() != EOF) recognizeDeclaration();
+        expect(RIGHT_BRACE, "Expect '}' after block");
+    }
+
+    private boolean recognizeExpression(){
+
+        boolean target = recognizeBinary(PREC_OR);
+
+        if (type() == EQUAL){
+            Token equals = advance();
+            recognizeExpression();
+            if (!target) error(equals, "invalid assignment target");
+            return false;
+        }
+
+        return target;
+
+    }
+
+    private boolean recognizeBinary(int minimum){
+
+        boolean target = recognizeOperand();
+
+        while (true){
+
+            int precedence = PRECEDENCE[type().ordinal()];
+            if (precedence == PREC_NONE || precedence < minimum) return target;
+
+            current++;
+            recognizeBinary(precedence + 1);
+            target = false;
+
+        }
+
+    }
+
+    // unary, call and primary: the prefix operators, then the operand, then the calls and property accesses on it
+    private boolean recognizeOperand(){
+
+        boolean prefixed = false;
+        while (type() == BANG || type() == MINUS){
+            current++;
+            prefixed = true;
+        }
+
+        boolean target;
+
+        switch (type()) {
+            case IDENTIFIER -> {
+                current++;
+                target = true;
+            }
+            case NUMBER, STRING, TRUE, FALSE, NIL, THIS -> {
+                current++;
+                target = false;
+            }
+            case SUPER -> {
+                current++;
+                expect(DOT, "Expect '.' after 'super'.");
+                expect(IDENTIFIER, "EXpect superclass method name.");
+                target = false;
+            }
+            case LEFT_PAREN -> {
+                current++;
+                recognizeExpression();
+                expect(RIGHT_PAREN, "Expect ')' after expression");
+                target = false;
+            }
+            default -> throw error(peek(), "Expect expression.");
+        }
+
+        while (true){
+
+            TokenType type = type();
+
+            if (type == LEFT_PAREN){
+
+                current++;
+
+                if (type() != RIGHT_PAREN){
+                    int arguments = 0;
+                    do{
+                        if (arguments >= 255) error(peek(), "Cant have more than 255 arguments");
+                        recognizeExpression();
+                        arguments++;
+                    } while (match(COMMA));
+                }
+
+                expect(RIGHT_PAREN, "Expect ')' after arguments.");
+                target = false;
+
+            }else if (type == DOT){
+                current++;
+                expect(IDENTIFIER, "Expect property name after '.'.");
+                target = true;
+            }else{
+                return target && !prefixed;
+            }
+
+        }
+
+    }
+
 
     // varDecl -> var IDENTIFIER (= Expression) ;
     private Stmt varDeclaration(){
@@ -201,7 +578,7 @@ class Parser {
             condition = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after loop condition.");
+        Token semicolon = consume(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)){
@@ -217,7 +594,8 @@ class Parser {
             body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
         }
 
-        if (condition == null ) condition = new Expr.Literal(true);
+        // a missing condition is true; it gets the semicolon's token, so it has a line like the others
+        if (condition == null ) condition = new Expr.Literal(semicolon, true);
         body = new Stmt.While(condition, body);
 
         if (initializer != null){
@@ -276,7 +654,7 @@ class Parser {
     private Expr assignment(){
 
         // cascades into the higher precedence expressions
-        Expr expr = or();
+        Expr expr = binary(PREC_OR);
 
         if(match(EQUAL)){
 
@@ -300,112 +678,47 @@ class Parser {
         return expr;
 
     }
-  
-    // logic_or → logic_and ( "or" logic_and )* ;
-    private Expr or(){
-
-        Expr expr = and();
-        
-        while(match(OR)){
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-
-    }
-
-    // logic_and → equality ( "and" equality )* ;
-    private Expr and(){
-        
-        Expr expr = equality();
-
-        while (match(AND)){
-            
-            Token operator = previous();
-            Expr right = equality();
-            expr  = new Expr.Logical(expr, operator, right);
-
-        }
-
-        return expr;
-    }
-    
-    //equality → comparison ( ( "!=" | "==" ) comparison )* ;
-    private Expr equality(){
-
-        // maps to the first comparison non-terminal in the grammar rule for equality
-        Expr expr = comparison();
-
-        // runs the remaining part of the rule as many time as == or != occur (0 or more)
-        while(match(BANG_EQUAL, EQUAL_EQUAL)){
-
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right); // converts the comparison statement into a binary token
-        
-
-        }
-
-        return expr;
-    }
-
-    // comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )*;
-    private Expr comparison(){
 
-        Expr expr = term();
+    // logic_or   → logic_and ( "or" logic_and )* ;
+    // logic_and  → equality ( "and" equality )* ;
+    // equality   → comparison ( ( "!=" | "==" ) comparison )* ;
+    // comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+    // term       → factor ( ( "-" | "+" ) factor )* ;
+    // factor     → unary ( ( "/" | "*" ) unary )* ;
+    // all six levels are parsed by one precedence-climbing loop driven by the PRECEDENCE table: an operand is parsed,
+    // then every following operator that binds at least as tightly as minimum takes the operand on its left and
+    // parses its right operand with operators one level tighter, which keeps the operators left-associative and
+    // builds the same tree as one method per level
+    private Expr binary(int minimum){
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)){
-
-            Token operator = previous();
-            Expr right = term(); // determining the right term
-            expr = new Expr.Binary(expr, operator, right);
-
-        }
-
-        return expr;
-
-    }
+        Expr expr = unary();
 
-    //term → factor ( ( "-" | "+" ) factor )* ;
-    // rule for term: addition, subtraction
-    private Expr term(){
+        while (true){
 
-        Expr expr = factor();
+            int precedence = isAtEnd() ? PREC_NONE : PRECEDENCE[peek().type.ordinal()];
+            if (precedence == PREC_NONE || precedence < minimum) break;
 
-        while(match(MINUS, PLUS)){
+            Token operator = advance();
+            Expr right = binary(precedence + 1);
 
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            if (precedence <= PREC_AND){
+                expr = new Expr.Logical(expr, operator, right);
+            }else{
+                expr = new Expr.Binary(expr, operator, right);
+            }
 
         }
 
         return expr;
-    }
-
-    //factor → unary ( ( "/" | "*" ) unary )* ;
-    // factor: multiplication and division
-    private Expr factor(){
-
-        Expr expr = unary();
-
-        while(match(SLASH, STAR)){
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
 
-        return expr;
     }
 
 
     //unary  → ( "!" | "-" ) unary | call;
     private Expr unary(){
 
-        if(match(BANG, MINUS)){
-            Token operator = previous();
+        if(check(BANG) || check(MINUS)){
+            Token operator = advance();
             Expr right = unary();
             return new Expr.Unary(operator, right);
         }
@@ -466,12 +779,13 @@ class Parser {
     // primary → NUMBER | STRING | "true" | "false" | "nil" | "(" expression ")" | "primary" . IDENTIFIER | "this";
     private Expr primary(){
 
-        if(match(FALSE)) return new Expr.Literal(false);
-        if(match(TRUE)) return new Expr.Literal(true);
-        if(match(NIL)) return new Expr.Literal(null);
+        if(match(FALSE)) return new Expr.Literal(previous(), false);
+        if(match(TRUE)) return new Expr.Literal(previous(), true);
+        if(match(NIL)) return new Expr.Literal(previous(), null);
 
-        if(match(NUMBER, STRING)){
-            return new Expr.Literal(previous().literal);
+        if(check(NUMBER) || check(STRING)){
+            Token literal = advance();
+            return new Expr.Literal(literal, literal.literal);
         }
 
         if (match(SUPER)){
@@ -501,15 +815,12 @@ class Parser {
 
 
 
-    // helper function match: checks to see if any of the given types are present in the current token
-    private boolean match(TokenType... types){
-
-        for(TokenType type: types){
-            if(check(type)){
-                advance();
-                return true;
-            }
+    // helper function match: consumes the current token if it has the given type (one type only, so no varargs array is allocated per call)
+    private boolean match(TokenType type){
 
+        if(check(type)){
+            advance();
+            return true;
         }
 
         return false;
@@ -541,7 +852,7 @@ class Parser {
 
     // helper function isAtEnd: checks if wehave run out of tokens to parse
     private boolean isAtEnd(){
-        return peek().type == EOF;
+        return current >= end || peek().type == EOF;
     }
 
     // fetches the token at current in List tokens
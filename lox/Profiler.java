@@ -0,0 +1,139 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+// the sampling profiler of --profile. the interpreters keep a stack of the Lox calls in progress (the callable and
+// the line of the call) in two arrays; a daemon thread looks at the stack every SAMPLE_INTERVAL and counts the stacks
+// it sees. the output is in the collapsed format flame graph tools read: one line per stack, frames from the
+// outermost separated by ';', then the number of samples. a frame is "name:line", the line being the call's.
+//
+// pushing a frame is two array stores and a release store of the depth, with no lock and no allocation. the sampler
+// reads the depth with acquire, so every frame below it was written before; it may still see a frame that was popped
+// and replaced while it was copying the stack, which only misplaces that one sample
+class Profiler {
+
+    // set before the program runs, when --profile is given
+    static boolean active = false;
+
+    private static final long SAMPLE_INTERVAL = 1;
+
+    // frames deeper than this are not recorded; samples of deeper stacks show the outermost MAX_DEPTH frames
+    private static final int MAX_DEPTH = 2048;
+
+    private static final Object[] callables = new Object[MAX_DEPTH];
+    private static final int[] lines = new int[MAX_DEPTH];
+
+    // written only by the interpreter's thread, through DEPTH
+    private static int depth = 0;
+    private static final VarHandle DEPTH;
+
+    static{
+        try{
+            DEPTH = MethodHandles.lookup().findStaticVarHandle(Profiler.class, "depth", int.class);
+        } catch (ReflectiveOperationException error){
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    // collapsed stack, number of samples; only the sampler thread writes it while it runs
+    private static final Map<String, Long> samples = new TreeMap<>();
+    private static long total = 0;
+
+    private static Thread sampler = null;
+
+    // called by the interpreters before a call, when active; every enter is matched by an exit, in a finally
+    static void enter(LoxCallable callable, int line){
+
+        int top = (int) DEPTH.get();
+        if (top < MAX_DEPTH){
+            callables[top] = callable;
+            lines[top] = line;
+        }
+
+        DEPTH.setRelease(top + 1);
+
+    }
+
+    static void exit(){
+        DEPTH.setRelease((int) DEPTH.get() - 1);
+    }
+
+    // starts sampling; the program is run between start and stop
+    static void start(){
+
+        sampler = new Thread(Profiler::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+    }
+
+    static void stop(){
+
+        sampler.interrupt();
+
+        try{
+            sampler.join();
+        } catch (InterruptedException error){
+            Thread.currentThread().interrupt();
+        }
+
+        sampler = null;
+
+    }
+
+    private static void sample(){
+
+        StringBuilder stack = new StringBuilder();
+
+        while (!Thread.currentThread().isInterrupted()){
+
+            try{
+                Thread.sleep(SAMPLE_INTERVAL);
+            } catch (InterruptedException error){
+                return;
+            }
+
+            int top = Math.min((int) DEPTH.getAcquire(), MAX_DEPTH);
+
+            stack.setLength(0);
+            stack.append("<script>");
+
+            for (int i = 0; i < top; i++){
+                stack.append(';').append(name(callables[i])).append(':').append(lines[i]);
+            }
+
+            samples.merge(stack.toString(), 1L, Long::sum);
+            total++;
+
+        }
+
+    }
+
+    private static String name(Object callable){
+        if (callable instanceof LoxFunction) return ((LoxFunction) callable).name();
+        if (callable instanceof LoxClass) return ((LoxClass) callable).name;
+        return String.valueOf(callable);
+    }
+
+    // writes the collapsed stacks to file; call after stop
+    static void write(Path file) throws IOException{
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))){
+            for (Map.Entry<String, Long> entry : samples.entrySet()){
+                out.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+
+        System.err.println("profile: " + total + " samples of " + samples.size() + " stacks written to " + file);
+
+    }
+
+}
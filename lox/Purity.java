@@ -0,0 +1,106 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// decides which top-level functions are pure enough to memoize (see --memoize). the Resolver records what every
+// function body does (see Resolver.trackEffects); once the whole program has been seen, infer() keeps the functions
+// that print nothing, set no fields, write no globals, create no functions or classes, only read their own locals
+// and globals that never change, and only call functions that are pure themselves. reading fields is not allowed
+// either, since instances can change between two calls with the same arguments
+class Purity {
+
+    // what one function body does
+    static class Effects {
+
+        // anything that rules the function out on its own
+        boolean impure = false;
+
+        // the globals the body reads and the ones it calls
+        final Set<String> reads = new HashSet<>();
+        final Set<String> calls = new HashSet<>();
+
+    }
+
+    private final Map<Stmt.Function, Effects> functions = new HashMap<>();
+
+    // globals assigned anywhere in the program
+    private final Set<String> assigned = new HashSet<>();
+
+    // called by the Resolver when it starts on a function body
+    Effects begin(Stmt.Function function){
+        Effects effects = new Effects();
+        functions.put(function, effects);
+        return effects;
+    }
+
+    void assign(String global){
+        assigned.add(global);
+    }
+
+    // the pure top-level functions of statements, in source order
+    List<Stmt.Function> infer(List<Stmt> statements){
+
+        // a global declared once at the top level and never assigned holds the same value whenever it is defined
+        Map<String, Integer> declarations = new HashMap<>();
+        for (Stmt statement : statements){
+            String name = declaredName(statement);
+            if (name != null) declarations.merge(name, 1, Integer::sum);
+        }
+
+        Set<String> stable = new HashSet<>();
+        for (Map.Entry<String, Integer> declaration : declarations.entrySet()){
+            if (declaration.getValue() == 1 && !assigned.contains(declaration.getKey())){
+                stable.add(declaration.getKey());
+            }
+        }
+
+        Map<String, Stmt.Function> pure = new LinkedHashMap<>();
+        for (Stmt statement : statements){
+
+            if (!(statement instanceof Stmt.Function)) continue;
+
+            Stmt.Function function = (Stmt.Function) statement;
+            Effects effects = functions.get(function);
+
+            if (effects == null || effects.impure) continue;
+            if (!stable.contains(function.name.lexeme) || !stable.containsAll(effects.reads)) continue;
+
+            pure.put(function.name.lexeme, function);
+
+        }
+
+        // drop functions that call one that is not pure until nothing changes; recursion is fine
+        boolean changed = true;
+        while (changed){
+
+            changed = false;
+
+            Iterator<Stmt.Function> iterator = pure.values().iterator();
+            while (iterator.hasNext()){
+                if (!pure.keySet().containsAll(functions.get(iterator.next()).calls)){
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+
+        }
+
+        return new ArrayList<>(pure.values());
+
+    }
+
+    private static String declaredName(Stmt statement){
+        if (statement instanceof Stmt.Function) return ((Stmt.Function) statement).name.lexeme;
+        if (statement instanceof Stmt.Var) return ((Stmt.Var) statement).name.lexeme;
+        if (statement instanceof Stmt.Class) return ((Stmt.Class) statement).name.lexeme;
+        return null;
+    }
+
+}
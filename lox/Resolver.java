@@ -1,5 +1,6 @@
 package lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +11,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     
     private final Interpreter interpreter;
 
+    // when set, resolutions are recorded here instead of in the interpreter so the resolver can run on another thread
+    private final Map<Expr, Integer> locals;
+
     // a stacks of Maps (children scopes)
     private final Stack<Map<String,Boolean>> scopes = new Stack<>();
 
@@ -20,6 +24,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     //used to ensure this is used in a class method
     private ClassType currentClass = ClassType.NONE;
 
+    // the name of the class being resolved if it is a subclass declared at the top level: that statement runs once,
+    // so its superclass never changes and the interpreter can find what its super expressions call up front
+    private Token topLevelClass = null;
+
+    // the super expressions in the methods of each such class, by the class's name token (see superSites)
+    private final Map<Token, List<Expr.Super>> superSites = new HashMap<>();
+
+    // when set (see trackEffects), what each function body does is recorded here
+    private Purity purity = null;
+
+    // the effects of the function being resolved (null at the top level) and the index in scopes of its parameters
+    private Purity.Effects effects = null;
+    private int functionScope = 0;
+
     private enum FunctionType{
         NONE,
         FUNCTION,
@@ -36,14 +54,39 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     Resolver(Interpreter interpreter){  
 
         this.interpreter = interpreter;
+        this.locals = null;
 
     } 
 
+    Resolver(Map<Expr, Integer> locals){
+
+        this.interpreter = null;
+        this.locals = locals;
+
+    }
+
+    // the super sites of the top-level subclasses resolved so far; whoever compiles the program hands them to the
+    // interpreter (see Interpreter.superSites). the bodies --lazy skips are resolved after their class statement has
+    // run, by a resolver of their own, so their super expressions are never devirtualized
+    Map<Token, List<Expr.Super>> superSites(){
+        return superSites;
+    }
+
+    // makes the resolver record what function bodies do, for --memoize
+    void trackEffects(Purity purity){
+        this.purity = purity;
+    }
+
     @Override 
     public Void visitClassStmt(Stmt.Class stmt){
         
+        impure();
+
         ClassType enclosingClass = currentClass;
         currentClass=ClassType.CLASS;
+
+        Token enclosingTopLevel = topLevelClass;
+        topLevelClass = scopes.isEmpty() && stmt.superclass != null ? stmt.name : null;
         
         declare(stmt.name);
         define(stmt.name);
@@ -82,6 +125,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if(stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
+        topLevelClass = enclosingTopLevel;
 
         return null;
     }
@@ -140,6 +184,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt){
+        impure();
         resolve(stmt.expression);
         return null;
     }
@@ -182,7 +227,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword,"Can't use 'super' in a class with no superclass");
         }
 
+        impure();
         resolveLocal(expr, expr.keyword);
+
+        if (topLevelClass != null) superSites.computeIfAbsent(topLevelClass, unused -> new ArrayList<>()).add(expr);
         return null;
     }
 
@@ -194,6 +242,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         resolveLocal(expr, expr.name);
+
+        if (effects != null){
+            int scope = scopeOf(expr.name);
+            if (scope == -1) effects.reads.add(expr.name.lexeme);
+            else if (scope < functionScope) impure();
+        }
+
         return null;
     }
 
@@ -201,6 +256,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitAssignExpr(Expr.Assign expr){
         resolve(expr.value);
         resolveLocal(expr, expr.name);
+
+        if (purity != null){
+            int scope = scopeOf(expr.name);
+            if (scope == -1) purity.assign(expr.name.lexeme);
+            if (scope < functionScope) impure();
+        }
+
         return null;
     }
 
@@ -221,17 +283,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(argument);
         }
 
+        // only calls to a global by name can be checked for purity
+        if (effects != null){
+            if (expr.callee instanceof Expr.Variable && scopeOf(((Expr.Variable) expr.callee).name) == -1){
+                effects.calls.add(((Expr.Variable) expr.callee).name.lexeme);
+            }else{
+                impure();
+            }
+        }
+
         return null;
     }
 
     @Override
     public Void visitGetExpr(Expr.Get expr){
+        impure();
         resolve(expr.object);
         return null;
     }
 
     @Override
     public Void visitSetExpr(Expr.Set expr){
+        impure();
         resolve(expr.value);
         resolve(expr.object);
 
@@ -246,7 +319,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             return null;
         }
 
-        
+        impure();
         resolveLocal(expr,expr.keyword);
         return null;
     }
@@ -303,12 +376,30 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         for (int i = scopes.size() - 1; i >= 0; i--){
             if (scopes.get(i).containsKey(name.lexeme)){
                 // we asssume the variable is global
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+                int depth = scopes.size() - 1 - i;
+                if (locals != null){
+                    locals.put(expr, depth);
+                }else{
+                    interpreter.resolve(expr, depth);
+                }
                 return;
             }
         }
     }
 
+    // the index in scopes of the innermost scope that has name, or -1 for a global
+    private int scopeOf(Token name){
+        for (int i = scopes.size() - 1; i >= 0; i--){
+            if (scopes.get(i).containsKey(name.lexeme)) return i;
+        }
+        return -1;
+    }
+
+    // marks the function being resolved (if any) as one that cannot be memoized
+    private void impure(){
+        if (effects != null) effects.impure = true;
+    }
+
     // pushes scope on to the stack we use to keep track of scopes
     private void beginScope(){
         scopes.push(new HashMap<String, Boolean>());
@@ -347,9 +438,24 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // resolves the function context we are in as well as saving the previous context. defines the parameters in a new scope and resolves the body of the function
     private void resolveFunction(Stmt.Function function, FunctionType type){
 
+        // a function that creates closures or methods returns new objects every time
+        impure();
+
+        if (function.body instanceof LazyBody && !((LazyBody) function.body).isParsed()){
+            deferFunction(function, type);
+            return;
+        }
+
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
+        Purity.Effects enclosingEffects = effects;
+        int enclosingScope = functionScope;
+        if (purity != null){
+            effects = purity.begin(function);
+            functionScope = scopes.size();
+        }
+
         beginScope();
         for (Token param: function.params){
             declare(param);
@@ -358,6 +464,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(function.body);
         endScope();
         currentFunction = enclosingFunction;
+
+        effects = enclosingEffects;
+        functionScope = enclosingScope;
+    }
+
+    // a lazily parsed body is resolved on the function's first call; copy the scopes it can see from here so that
+    // resolution then gives the same depths it would have given now
+    private void deferFunction(Stmt.Function function, FunctionType type){
+
+        List<Map<String, Boolean>> visible = new ArrayList<>();
+        for (Map<String, Boolean> scope : scopes){
+            visible.add(new HashMap<>(scope));
+        }
+
+        ClassType enclosingClass = currentClass;
+
+        ((LazyBody) function.body).defer(interpreter -> {
+            Resolver resolver = new Resolver(interpreter);
+            resolver.scopes.addAll(visible);
+            resolver.currentClass = enclosingClass;
+            resolver.resolveFunction(function, type);
+        });
+
     }
 
 }
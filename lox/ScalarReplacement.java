@@ -0,0 +1,764 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// replaces instances that never escape the scope that creates them with one local variable per field (see
+// --optimize). a class qualifies if it is declared once at the top level, is never assigned, has no superclass, and
+// its init only sets fields of this to expressions of its parameters and literals. an instance qualifies if it is the
+// initializer of a local variable, "var p = Point(...);", and the variable is only ever used to get or set the
+// fields init sets: anything else (passing it, returning it, calling a method on it, printing it, assigning the
+// variable) lets the instance escape. such a declaration becomes the arguments and the init's field expressions
+// stored in locals named "p.x" (no identifier has a dot), and every "p.x" get or set reads or assigns that local at
+// the depth p had. closures that use the fields capture the locals just as they would have captured p. "declared
+// once" only holds for a whole program, so the REPL, where a later line can declare the class again, skips the pass
+class ScalarReplacement {
+
+    private final Interpreter interpreter;
+
+    // the qualifying classes by name
+    private final Map<String, Shape> shapes = new HashMap<>();
+
+    // the qualifying instances by declaration, and the field gets and sets of each
+    private final Map<Stmt.Var, Candidate> candidates = new HashMap<>();
+    private final Map<Expr, Candidate> uses = new HashMap<>();
+
+    // the depths of the variable nodes that the rewrite no longer uses
+    private final Map<Expr, Integer> dropped = new HashMap<>();
+
+    private final List<String> report = new ArrayList<>();
+
+    ScalarReplacement(Interpreter interpreter){
+        this.interpreter = interpreter;
+    }
+
+    // what was replaced, one line per variable
+    List<String> report(){
+        return report;
+    }
+
+    // a class whose init only sets fields
+    private static class Shape {
+
+        final Stmt.Class klass;
+        final List<Token> params;
+
+        // in the order init sets them, with the expressions it sets them to
+        final List<String> fields = new ArrayList<>();
+        final List<Expr> values = new ArrayList<>();
+
+        Shape(Stmt.Class klass, List<Token> params){
+            this.klass = klass;
+            this.params = params;
+        }
+
+        // whether init sets the fields to its parameters, one each and in order, so the arguments can go straight
+        // into the field locals
+        boolean direct(){
+
+            if (fields.size() != params.size()) return false;
+
+            for (int i = 0; i < params.size(); i++){
+                Expr value = values.get(i);
+                if (!(value instanceof Expr.Variable)) return false;
+                if (!((Expr.Variable) value).name.lexeme.equals(params.get(i).lexeme)) return false;
+            }
+
+            return true;
+
+        }
+
+    }
+
+    private static class Candidate {
+
+        final Stmt.Var var;
+        final Shape shape;
+        boolean escaped = false;
+
+        Candidate(Stmt.Var var, Shape shape){
+            this.var = var;
+            this.shape = shape;
+        }
+
+    }
+
+    List<Stmt> replace(List<Stmt> statements){
+
+        Map<String, Integer> declarations = new HashMap<>();
+        for (Stmt statement : statements){
+            if (statement instanceof Stmt.Class) declarations.merge(((Stmt.Class) statement).name.lexeme, 1, Integer::sum);
+            if (statement instanceof Stmt.Function) declarations.merge(((Stmt.Function) statement).name.lexeme, 1, Integer::sum);
+            if (statement instanceof Stmt.Var) declarations.merge(((Stmt.Var) statement).name.lexeme, 1, Integer::sum);
+        }
+
+        for (Stmt statement : statements){
+            if (!(statement instanceof Stmt.Class)) continue;
+
+            Stmt.Class klass = (Stmt.Class) statement;
+            if (declarations.get(klass.name.lexeme) != 1) continue;
+
+            Shape shape = shape(klass);
+            if (shape != null) shapes.put(klass.name.lexeme, shape);
+        }
+
+        if (shapes.isEmpty()) return statements;
+
+        Escapes escapes = new Escapes();
+        escapes.walk(statements);
+
+        candidates.values().removeIf(candidate ->
+            candidate.escaped || escapes.assigned.contains(candidate.shape.klass.name.lexeme));
+
+        if (candidates.isEmpty()) return statements;
+
+        List<Stmt> replaced = new Rewriter().list(statements);
+        interpreter.forget(dropped);
+
+        return replaced;
+
+    }
+
+    // the shape of klass, or null if it does not qualify
+    private Shape shape(Stmt.Class klass){
+
+        if (klass.superclass != null) return null;
+
+        Stmt.Function init = null;
+        for (Stmt.Function method : klass.methods){
+            if (method.name.lexeme.equals("init")) init = method;
+        }
+
+        // a body the lazy parser skipped is not resolved yet
+        if (init == null || init.body instanceof LazyBody) return null;
+
+        Shape shape = new Shape(klass, init.params);
+
+        for (Stmt statement : init.body){
+
+            if (!(statement instanceof Stmt.Expression)) return null;
+            Expr expression = ((Stmt.Expression) statement).expression;
+
+            if (!(expression instanceof Expr.Set)) return null;
+            Expr.Set set = (Expr.Set) expression;
+
+            if (!(set.object instanceof Expr.This) || !simple(set.value)) return null;
+            if (shape.fields.contains(set.name.lexeme)) return null;
+
+            shape.fields.add(set.name.lexeme);
+            shape.values.add(set.value);
+
+        }
+
+        return shape;
+
+    }
+
+    // whether expr only uses literals, the init's parameters and operators; the parameters are the only variables
+    // resolved to the init's own scope
+    private boolean simple(Expr expr){
+
+        if (expr instanceof Expr.Literal) return true;
+
+        if (expr instanceof Expr.Variable){
+            Integer depth = interpreter.depth(expr);
+            return depth != null && depth == 0;
+        }
+
+        if (expr instanceof Expr.Grouping) return simple(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) return simple(((Expr.Unary) expr).right);
+
+        if (expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            return simple(binary.left) && simple(binary.right);
+        }
+
+        return false;
+
+    }
+
+    // the candidate that "var p = Class(...)" declares, if it could be one
+    private Candidate candidate(Stmt.Var var){
+
+        if (!(var.initializer instanceof Expr.Call)) return null;
+        Expr.Call call = (Expr.Call) var.initializer;
+
+        if (!(call.callee instanceof Expr.Variable) || interpreter.depth(call.callee) != null) return null;
+
+        Shape shape = shapes.get(((Expr.Variable) call.callee).name.lexeme);
+        if (shape == null || shape.params.size() != call.arguments.size()) return null;
+
+        return new Candidate(var, shape);
+
+    }
+
+    private static Token local(Token at, String name){
+        return new Token(TokenType.IDENTIFIER, name, null, at.line(), at.column());
+    }
+
+    // finds the candidates and whether they escape, tracking scopes the way the Resolver does
+    private class Escapes implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        // globals assigned anywhere
+        final Set<String> assigned = new HashSet<>();
+
+        private final List<Map<String, Candidate>> scopes = new ArrayList<>();
+
+        // set inside bodies the lazy parser skipped: they cannot be rewritten, so any use there is an escape
+        private boolean lazy = false;
+
+        void walk(List<Stmt> statements){
+            for (Stmt statement : statements){
+                statement.accept(this);
+            }
+        }
+
+        private void walk(Expr expr){
+            if (expr != null) expr.accept(this);
+        }
+
+        // the candidate name refers to, if it refers to one
+        private Candidate lookUp(Token name){
+
+            for (int i = scopes.size() - 1; i >= 0; i--){
+                Map<String, Candidate> scope = scopes.get(i);
+                if (scope.containsKey(name.lexeme)) return scope.get(name.lexeme);
+            }
+
+            return null;
+
+        }
+
+        private void declare(Token name, Candidate candidate){
+            if (!scopes.isEmpty()) scopes.get(scopes.size() - 1).put(name.lexeme, candidate);
+        }
+
+        // the candidate object is, if it is a candidate's variable and name is one of the fields its init sets
+        private Candidate field(Expr object, Token name){
+
+            if (lazy || !(object instanceof Expr.Variable)) return null;
+
+            Candidate candidate = lookUp(((Expr.Variable) object).name);
+            if (candidate == null || !candidate.shape.fields.contains(name.lexeme)) return null;
+
+            return candidate;
+
+        }
+
+        private void beginScope(){
+            scopes.add(new HashMap<>());
+        }
+
+        private void endScope(){
+            scopes.remove(scopes.size() - 1);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr){
+
+            walk(expr.value);
+
+            Candidate candidate = lookUp(expr.name);
+            if (candidate != null) candidate.escaped = true;
+
+            if (interpreter.depth(expr) == null) assigned.add(expr.name.lexeme);
+            return null;
+
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr){
+            walk(expr.left);
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr){
+            walk(expr.callee);
+            for (Expr argument : expr.arguments){
+                walk(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr){
+
+            Candidate candidate = field(expr.object, expr.name);
+            if (candidate != null) uses.put(expr, candidate);
+            else walk(expr.object);
+
+            return null;
+
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr){
+            walk(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr){
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr){
+            walk(expr.left);
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr){
+
+            Candidate candidate = field(expr.object, expr.name);
+            if (candidate != null) uses.put(expr, candidate);
+            else walk(expr.object);
+
+            walk(expr.value);
+            return null;
+
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr){
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr){
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr){
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr){
+            Candidate candidate = lookUp(expr.name);
+            if (candidate != null) candidate.escaped = true;
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt){
+            beginScope();
+            walk(stmt.statements);
+            endScope();
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt){
+
+            declare(stmt.name, null);
+            walk(stmt.superclass);
+
+            for (Stmt.Function method : stmt.methods){
+                function(method);
+            }
+
+            return null;
+
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt){
+            walk(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt){
+            declare(stmt.name, null);
+            function(stmt);
+            return null;
+        }
+
+        // looking into a body the lazy parser skipped parses it
+        private void function(Stmt.Function function){
+
+            boolean enclosingLazy = lazy;
+            if (function.body instanceof LazyBody) lazy = true;
+
+            beginScope();
+            for (Token param : function.params){
+                declare(param, null);
+            }
+
+            walk(function.body);
+            endScope();
+
+            lazy = enclosingLazy;
+
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt){
+            walk(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt){
+            walk(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt){
+            walk(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt){
+
+            walk(stmt.initializer);
+
+            Candidate candidate = scopes.isEmpty() || lazy ? null : candidate(stmt);
+            if (candidate != null) candidates.put(stmt, candidate);
+
+            declare(stmt.name, candidate);
+            return null;
+
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt){
+            walk(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+    }
+
+    // copies the tree with the candidates replaced, reusing every node whose subtree does not change; new variable
+    // and assignment nodes get the depths of the nodes they stand for
+    private class Rewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+        List<Stmt> list(List<Stmt> statements){
+
+            if (statements instanceof LazyBody) return statements;
+
+            List<Stmt> result = new ArrayList<>();
+            boolean same = true;
+
+            for (Stmt statement : statements){
+
+                Candidate candidate = statement instanceof Stmt.Var ? candidates.get(statement) : null;
+                if (candidate != null){
+                    expand(candidate, result);
+                    same = false;
+                    continue;
+                }
+
+                Stmt rewritten = statement.accept(this);
+                result.add(rewritten);
+                if (rewritten != statement) same = false;
+
+            }
+
+            return same ? statements : result;
+
+        }
+
+        private List<Expr> list(List<Expr> expressions, boolean[] changed){
+
+            List<Expr> result = new ArrayList<>();
+            for (Expr expression : expressions){
+                Expr rewritten = rewrite(expression);
+                result.add(rewritten);
+                if (rewritten != expression) changed[0] = true;
+            }
+
+            return result;
+
+        }
+
+        private Expr rewrite(Expr expr){
+            return expr == null ? null : expr.accept(this);
+        }
+
+        private Stmt rewrite(Stmt stmt){
+            return stmt == null ? null : stmt.accept(this);
+        }
+
+        // the statements that stand for "var p = Class(arguments);"
+        private void expand(Candidate candidate, List<Stmt> into){
+
+            Token name = candidate.var.name;
+            Expr.Call call = (Expr.Call) candidate.var.initializer;
+            Shape shape = candidate.shape;
+
+            // still fails, as the call would have, if the class is not defined yet
+            into.add(new Stmt.Expression(call.callee));
+
+            if (shape.direct()){
+                for (int i = 0; i < shape.fields.size(); i++){
+                    into.add(new Stmt.Var(local(name, name.lexeme + "." + shape.fields.get(i)), rewrite(call.arguments.get(i))));
+                }
+            }else{
+
+                for (int i = 0; i < shape.params.size(); i++){
+                    into.add(new Stmt.Var(local(name, parameter(candidate, shape.params.get(i))), rewrite(call.arguments.get(i))));
+                }
+
+                for (int i = 0; i < shape.fields.size(); i++){
+                    Expr value = substitute(shape.values.get(i), candidate);
+                    into.add(new Stmt.Var(local(name, name.lexeme + "." + shape.fields.get(i)), value));
+                }
+
+            }
+
+            report.add("[line " + name.line() + "] replaced '" + name.lexeme + "' (" + shape.klass.name.lexeme
+                + " instance) with " + shape.fields.size() + " locals");
+
+        }
+
+        private String parameter(Candidate candidate, Token param){
+            return candidate.var.name.lexeme + ".init." + param.lexeme;
+        }
+
+        // a copy of an init's field expression that reads the locals holding the arguments, which are declared in
+        // the same scope as the fields
+        private Expr substitute(Expr expr, Candidate candidate){
+
+            if (expr instanceof Expr.Variable){
+                Expr.Variable variable = new Expr.Variable(local(candidate.var.name, parameter(candidate, ((Expr.Variable) expr).name)));
+                interpreter.resolve(variable, 0);
+                return variable;
+            }
+
+            if (expr instanceof Expr.Grouping){
+                return new Expr.Grouping(substitute(((Expr.Grouping) expr).expression, candidate));
+            }
+
+            if (expr instanceof Expr.Unary){
+                Expr.Unary unary = (Expr.Unary) expr;
+                return new Expr.Unary(unary.operator, substitute(unary.right, candidate));
+            }
+
+            if (expr instanceof Expr.Binary){
+                Expr.Binary binary = (Expr.Binary) expr;
+                return new Expr.Binary(substitute(binary.left, candidate), binary.operator, substitute(binary.right, candidate));
+            }
+
+            return expr;
+
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr){
+
+            Expr value = rewrite(expr.value);
+            if (value == expr.value) return expr;
+
+            // a global assignment has no depth and stays unresolved, as the resolver leaves it
+            Expr.Assign assign = new Expr.Assign(expr.name, value);
+            Integer depth = interpreter.depth(expr);
+            if (depth != null) interpreter.resolve(assign, depth);
+
+            return assign;
+
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr){
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+            return new Expr.Binary(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr){
+
+            boolean[] changed = {false};
+            Expr callee = rewrite(expr.callee);
+            List<Expr> arguments = list(expr.arguments, changed);
+
+            if (callee == expr.callee && !changed[0]) return expr;
+            return new Expr.Call(callee, expr.paren, arguments);
+
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr){
+
+            Candidate candidate = uses.get(expr);
+            if (candidate != null && candidates.containsKey(candidate.var)){
+                return fieldVariable(expr.object, expr.name);
+            }
+
+            Expr object = rewrite(expr.object);
+            return object == expr.object ? expr : new Expr.Get(object, expr.name);
+
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr){
+            Expr expression = rewrite(expr.expression);
+            return expression == expr.expression ? expr : new Expr.Grouping(expression);
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr){
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr){
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+            return new Expr.Logical(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr){
+
+            Expr value = rewrite(expr.value);
+
+            Candidate candidate = uses.get(expr);
+            if (candidate != null && candidates.containsKey(candidate.var)){
+
+                Integer depth = interpreter.depth(expr.object);
+                dropped.put(expr.object, depth);
+
+                Expr.Assign assign = new Expr.Assign(fieldName(expr.object, expr.name), value);
+                interpreter.resolve(assign, depth);
+                return assign;
+
+            }
+
+            Expr object = rewrite(expr.object);
+            if (object == expr.object && value == expr.value) return expr;
+            return new Expr.Set(object, expr.name, value);
+
+        }
+
+        // "p.x" read at the depth of p
+        private Expr fieldVariable(Expr object, Token name){
+
+            Integer depth = interpreter.depth(object);
+            dropped.put(object, depth);
+
+            Expr.Variable variable = new Expr.Variable(fieldName(object, name));
+            interpreter.resolve(variable, depth);
+            return variable;
+
+        }
+
+        private Token fieldName(Expr object, Token name){
+            return local(name, ((Expr.Variable) object).name.lexeme + "." + name.lexeme);
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr){
+            return expr;
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr){
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr){
+            Expr right = rewrite(expr.right);
+            return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr){
+            return expr;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt){
+            List<Stmt> statements = list(stmt.statements);
+            return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt){
+
+            List<Stmt.Function> methods = new ArrayList<>();
+            boolean same = true;
+
+            for (Stmt.Function method : stmt.methods){
+                Stmt.Function rewritten = (Stmt.Function) method.accept(this);
+                methods.add(rewritten);
+                if (rewritten != method) same = false;
+            }
+
+            return same ? stmt : new Stmt.Class(stmt.name, stmt.superclass, methods);
+
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt){
+            Expr expression = rewrite(stmt.expression);
+            return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt){
+            List<Stmt> body = list(stmt.body);
+            return body == stmt.body ? stmt : new Stmt.Function(stmt.name, stmt.params, body);
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt){
+
+            Expr condition = rewrite(stmt.condition);
+            Stmt thenBranch = rewrite(stmt.thenBranch);
+            Stmt elseBranch = rewrite(stmt.elseBranch);
+
+            if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) return stmt;
+            return new Stmt.If(condition, thenBranch, elseBranch);
+
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt){
+            Expr expression = rewrite(stmt.expression);
+            return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+        }
+
+        @Override
+        public Stmt visitReturnStmt(Stmt.Return stmt){
+            Expr value = rewrite(stmt.value);
+            return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt){
+            Expr initializer = rewrite(stmt.initializer);
+            return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt){
+            Expr condition = rewrite(stmt.condition);
+            Stmt body = rewrite(stmt.body);
+            if (condition == stmt.condition && body == stmt.body) return stmt;
+            return new Stmt.While(condition, body);
+        }
+
+    }
+
+}
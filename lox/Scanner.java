@@ -1,5 +1,6 @@
 package lox;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,21 @@ class Scanner {
     // the current line
     private int line = 1;
 
+    // one past the last character this scanner may look at (the whole source unless scanning a chunk)
+    private final int end;
+
+    // the line the lexeme being scanned started on
+    private int startLine = 1;
+
+    // where the current line starts and the column the lexeme being scanned started at; columns count characters
+    // on the line as it is in the file, newlines in block comments included
+    private int lineStart = 0;
+    private int startColumn = 1;
+
+    // when recording (see recordPositions) the offset and line every token started at, by token index
+    private int[] starts = null;
+    private int[] startLines = null;
+
     private static final Map<String, TokenType> keywords;
 
     // runs when the class is loaded into memory
@@ -49,22 +65,79 @@ class Scanner {
     }
 
     Scanner(String source){
+        this(source, 0, source.length(), 1);
+    }
+
+    // scans only source[start, end) as if the scanner had already reached it on the given line; used by ParallelScanner
+    Scanner(String source, int start, int end, int line){
         this.source = source;
+        this.start = start;
+        this.current = start;
+        this.end = end;
+        this.line = line;
+        this.lineStart = source.lastIndexOf('\n', start - 1) + 1;
     }
 
     List<Token> scanTokens(){
 
-        while(!isAtEnd()){
+        scanChunk();
+
+        tokens.add(new Token(EOF, "", null, line));
+        return tokens;
+
+    }
+
+    // scans every lexeme in the range without appending the EOF token
+    List<Token> scanChunk(){
+
+        scanUntil(end);
+        return tokens;
+
+    }
+
+    // scans lexemes until the scanner reaches stop; returns where it stopped, which is past stop if a lexeme crossed it
+    int scanUntil(int stop){
+
+        while(!isAtEnd() && current < stop){
 
             // we are at the beginning of the next lexeme
             start = current;
+            startLine = line;
+            startColumn = start - lineStart + 1;
             scanToken();
 
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        return current;
+
+    }
+
+    // the tokens scanned so far and where the scanner is
+    List<Token> tokens(){
         return tokens;
+    }
+
+    int position(){
+        return current;
+    }
+
+    // makes the scanner remember where each token starts; used by IncrementalCompiler
+    void recordPositions(){
+        starts = new int[64];
+        startLines = new int[64];
+    }
 
+    int start(int token){
+        return starts[token];
+    }
+
+    int startLine(int token){
+        return startLines[token];
+    }
+
+    // the line the scanner stopped on
+    int line(){
+        return line;
     }
 
     private void scanToken(){
@@ -119,6 +192,7 @@ class Scanner {
 
             case '\n':
                 line++;
+                lineStart = current;
                 break;
 
             case '"': string(); break;
@@ -144,7 +218,7 @@ class Scanner {
 
                 }else{
 
-                    Lox.error(line, "Unexpected character.");
+                    Lox.error(line, startColumn, "Unexpected character.");
 
                 }
 
@@ -159,13 +233,13 @@ class Scanner {
         // go till the end of the line
         while (peek() != '*' && peekNext() != '/' && !isAtEnd()) {
 
-            advance();
+            if (advance() == '\n') lineStart = current;
 
         }
 
         if (isAtEnd()){
 
-            Lox.error(line, "Unterminated block comment");
+            Lox.error(line, startColumn, "Unterminated block comment");
             return;
 
         }
@@ -209,14 +283,17 @@ class Scanner {
         
         while(peek() != '"' && !isAtEnd()){
 
-            if(peek() == '\n') line++;
+            if(peek() == '\n'){
+                line++;
+                lineStart = current + 1;
+            }
             advance();
 
         }
 
         if (isAtEnd()){
 
-            Lox.error(line, "Unterminated string.");
+            Lox.error(line, startLine == line ? startColumn : 0, "Unterminated string.");
             return;
 
         }
@@ -253,7 +330,7 @@ class Scanner {
     // shows the next character without advancing current (beacause numbers like 1234. are invalid)
     private char peekNext(){
 
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
 
     }
@@ -279,7 +356,7 @@ class Scanner {
 
     // tells the scanner whetehr all the characters have been scanned through
     private boolean isAtEnd(){
-        return current >= source.length();
+        return current >= end;
     }
 
     // returns the next character in the source file
@@ -298,7 +375,19 @@ class Scanner {
     private void addToken(TokenType type, Object literal){
 
         String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+
+        if (starts != null){
+            int index = tokens.size();
+            if (index == starts.length){
+                starts = Arrays.copyOf(starts, index * 2);
+                startLines = Arrays.copyOf(startLines, index * 2);
+            }
+            starts[index] = start;
+            startLines[index] = startLine;
+        }
+
+        // a string that spans lines is reported on the line it ends on, where its column would mean nothing
+        tokens.add(new Token(type, text, literal, line, startLine == line ? startColumn : 0));
 
     }
 }
@@ -0,0 +1,242 @@
+package lox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+// what --stats reports: the wall time and the bytes allocated by each phase of a run, the size of the program and
+// how often the interpreters did the things that cost the most. the counters are only touched while enabled is set,
+// so a run without --stats pays one branch for each of them. the phases are also recorded as lox.Phase events (see
+// LoxEvents) while a flight recording enables those
+class Stats {
+
+    static boolean enabled = false;
+
+    // runtime counters, for both interpreters
+    static long statements = 0;
+    static long calls = 0;
+    static long environments = 0;
+    static long gets = 0;
+    static long sets = 0;
+    static long binds = 0;
+
+    // the size of the program, counted after parsing; bodies --lazy has not parsed yet are not counted
+    static long tokens = 0;
+    static long nodes = 0;
+
+    private static final List<Phase> phases = new ArrayList<>();
+
+    // loaded by the first phase timed, since getting the bean starts the JVM's management support
+    private static final class Allocation {
+        // null when the JVM cannot count allocations per thread
+        static final com.sun.management.ThreadMXBean threads = allocationCounter();
+    }
+
+    // a phase being timed; see begin
+    static class Phase {
+
+        final String name;
+        private final long start;
+        private final long allocatedBefore;
+
+        // null unless a recording wants it
+        private final LoxEvents.Phase event;
+
+        long nanos;
+
+        // -1 if unknown
+        long allocated;
+
+        private Phase(String name){
+
+            this.name = name;
+            this.event = LoxEvents.phasesEnabled() ? new LoxEvents.Phase() : null;
+            if (event != null) event.begin();
+
+            this.allocatedBefore = allocatedBytes();
+            this.start = System.nanoTime();
+
+        }
+
+    }
+
+    // starts timing a phase; null while neither --stats nor a recording wants it, which end ignores
+    static Phase begin(String name){
+        return enabled || LoxEvents.phasesEnabled() ? new Phase(name) : null;
+    }
+
+    // the bytes are those this thread allocated: the work --parallel hands to the fork-join pool is not in them
+    static void end(Phase phase){
+
+        if (phase == null) return;
+
+        phase.nanos = System.nanoTime() - phase.start;
+        long allocated = allocatedBytes();
+        phase.allocated = allocated < 0 || phase.allocatedBefore < 0 ? -1 : allocated - phase.allocatedBefore;
+
+        if (phase.event != null){
+            phase.event.name = phase.name;
+            phase.event.commit();
+        }
+
+        if (enabled) phases.add(phase);
+
+    }
+
+    static void countTokens(List<Token> scanned){
+        if (enabled) tokens += scanned.size();
+    }
+
+    static void countNodes(List<Stmt> statements){
+        if (enabled) nodes += new NodeCount().statements(statements);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter(){
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+        if (!counter.isThreadAllocatedMemorySupported()) return null;
+
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+
+    }
+
+    private static long allocatedBytes(){
+        return Allocation.threads == null ? -1 : Allocation.threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private static String[][] counters(){
+        return new String[][] {
+            {"tokens", "tokens", Long.toString(tokens)},
+            {"nodes", "AST nodes", Long.toString(nodes)},
+            {"statements", "statements executed", Long.toString(statements)},
+            {"calls", "calls", Long.toString(calls)},
+            {"environments", "environments created", Long.toString(environments)},
+            {"gets", "property gets", Long.toString(gets)},
+            {"sets", "property sets", Long.toString(sets)},
+            {"binds", "methods bound", Long.toString(binds)},
+        };
+    }
+
+    // the report, as a table or as one JSON object
+    static String report(boolean json){
+        return json ? json() : table();
+    }
+
+    private static String table(){
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-22s %12s %16s%n", "phase", "time (ms)", "allocated (KB)"));
+
+        for (Phase phase : phases){
+            String allocated = phase.allocated < 0 ? "-" : Long.toString(phase.allocated / 1024);
+            out.append(String.format("%-22s %12.3f %16s%n", phase.name, phase.nanos / 1e6, allocated));
+        }
+
+        out.append(System.lineSeparator());
+
+        for (String[] counter : counters()){
+            out.append(String.format("%-22s %12s%n", counter[1], counter[2]));
+        }
+
+        return out.toString();
+
+    }
+
+    private static String json(){
+
+        StringBuilder out = new StringBuilder("{\"phases\": [");
+
+        for (int i = 0; i < phases.size(); i++){
+            Phase phase = phases.get(i);
+            if (i > 0) out.append(", ");
+            out.append(String.format("{\"name\": \"%s\", \"ms\": %.3f, \"bytes\": %d}", phase.name, phase.nanos / 1e6, phase.allocated));
+        }
+
+        out.append("]");
+
+        for (String[] counter : counters()){
+            out.append(", \"").append(counter[0]).append("\": ").append(counter[2]);
+        }
+
+        return out.append("}").toString();
+
+    }
+
+    // counts the nodes of a tree
+    private static class NodeCount {
+
+        long statements(List<Stmt> statements){
+
+            // reading an unparsed lazy body would parse it
+            if (statements instanceof LazyBody && !((LazyBody) statements).isParsed()) return 0;
+
+            long count = 0;
+            for (Stmt statement : statements){
+                count += statement(statement);
+            }
+
+            return count;
+
+        }
+
+        long statement(Stmt stmt){
+
+            if (stmt == null) return 0;
+
+            return 1 + switch (stmt.kind) {
+                case BLOCK -> statements(((Stmt.Block) stmt).statements);
+                case CLASS -> {
+                    Stmt.Class declaration = (Stmt.Class) stmt;
+                    long count = expression(declaration.superclass);
+                    for (Stmt.Function method : declaration.methods){
+                        count += statement(method);
+                    }
+                    yield count;
+                }
+                case EXPRESSION -> expression(((Stmt.Expression) stmt).expression);
+                case FUNCTION -> statements(((Stmt.Function) stmt).body);
+                case IF -> {
+                    Stmt.If branch = (Stmt.If) stmt;
+                    yield expression(branch.condition) + statement(branch.thenBranch) + statement(branch.elseBranch);
+                }
+                case PRINT -> expression(((Stmt.Print) stmt).expression);
+                case RETURN -> expression(((Stmt.Return) stmt).value);
+                case VAR -> expression(((Stmt.Var) stmt).initializer);
+                case WHILE -> expression(((Stmt.While) stmt).condition) + statement(((Stmt.While) stmt).body);
+            };
+
+        }
+
+        long expression(Expr expr){
+
+            if (expr == null) return 0;
+
+            return 1 + switch (expr.kind) {
+                case ASSIGN -> expression(((Expr.Assign) expr).value);
+                case BINARY -> expression(((Expr.Binary) expr).left) + expression(((Expr.Binary) expr).right);
+                case CALL -> {
+                    Expr.Call call = (Expr.Call) expr;
+                    long count = expression(call.callee);
+                    for (Expr argument : call.arguments){
+                        count += expression(argument);
+                    }
+                    yield count;
+                }
+                case GET -> expression(((Expr.Get) expr).object);
+                case GROUPING -> expression(((Expr.Grouping) expr).expression);
+                case LOGICAL -> expression(((Expr.Logical) expr).left) + expression(((Expr.Logical) expr).right);
+                case SET -> expression(((Expr.Set) expr).object) + expression(((Expr.Set) expr).value);
+                case UNARY -> expression(((Expr.Unary) expr).right);
+                case LITERAL, SUPER, THIS, VARIABLE -> 0;
+            };
+
+        }
+
+    }
+
+}
@@ -2,7 +2,7 @@ package lox;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt {
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
@@ -14,8 +14,26 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
   }
- static class Block extends Stmt {
+  enum Kind {
+    BLOCK,
+    CLASS,
+    EXPRESSION,
+    FUNCTION,
+    IF,
+    PRINT,
+    RETURN,
+    VAR,
+    WHILE
+  }
+
+  final Kind kind;
+
+  Stmt(Kind kind) {
+    this.kind = kind;
+  }
+ static final class Block extends Stmt {
     Block(List<Stmt> statements) {
+      super(Kind.BLOCK);
       this.statements = statements;
     }
 
@@ -26,8 +44,9 @@ abstract class Stmt {
 
     final List<Stmt> statements;
 }
- static class Class extends Stmt {
+ static final class Class extends Stmt {
     Class(Token name, Expr.Variable superclass , List<Stmt.Function> methods) {
+      super(Kind.CLASS);
       this.name = name;
       this.superclass = superclass;
       this.methods = methods;
@@ -42,8 +61,9 @@ abstract class Stmt {
     final Expr.Variable superclass ;
     final List<Stmt.Function> methods;
 }
- static class Expression extends Stmt {
+ static final class Expression extends Stmt {
     Expression(Expr expression) {
+      super(Kind.EXPRESSION);
       this.expression = expression;
     }
 
@@ -54,8 +74,9 @@ abstract class Stmt {
 
     final Expr expression;
 }
- static class Function extends Stmt {
+ static final class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
+      super(Kind.FUNCTION);
       this.name = name;
       this.params = params;
       this.body = body;
@@ -70,8 +91,9 @@ abstract class Stmt {
     final List<Token> params;
     final List<Stmt> body;
 }
- static class If extends Stmt {
+ static final class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      super(Kind.IF);
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
@@ -86,8 +108,9 @@ abstract class Stmt {
     final Stmt thenBranch;
     final Stmt elseBranch;
 }
- static class Print extends Stmt {
+ static final class Print extends Stmt {
     Print(Expr expression) {
+      super(Kind.PRINT);
       this.expression = expression;
     }
 
@@ -98,8 +121,9 @@ abstract class Stmt {
 
     final Expr expression;
 }
- static class Return extends Stmt {
+ static final class Return extends Stmt {
     Return(Token keyword, Expr value) {
+      super(Kind.RETURN);
       this.keyword = keyword;
       this.value = value;
     }
@@ -112,8 +136,9 @@ abstract class Stmt {
     final Token keyword;
     final Expr value;
 }
- static class Var extends Stmt {
+ static final class Var extends Stmt {
     Var(Token name, Expr initializer) {
+      super(Kind.VAR);
       this.name = name;
       this.initializer = initializer;
     }
@@ -126,8 +151,9 @@ abstract class Stmt {
     final Token name;
     final Expr initializer;
 }
- static class While extends Stmt {
+ static final class While extends Stmt {
     While(Expr condition, Stmt body) {
+      super(Kind.WHILE);
       this.condition = condition;
       this.body = body;
     }
@@ -5,16 +5,61 @@ class Token {
     final TokenType type;
     final String lexeme; 
     final Object literal;
-    final int line;
+
+    // the line and the column packed into one int (see pack): the column costs nothing over the line alone. it
+    // only changes through moveLines
+    private int position;
+
+    // lines get the high bits; a column that does not fit, like that of a token built without one, is stored as 0
+    // (unknown), and lines past MAX_LINE are reported as MAX_LINE
+    private static final int COLUMN_BITS = 11;
+    private static final int MAX_COLUMN = (1 << COLUMN_BITS) - 1;
+    private static final int MAX_LINE = (1 << (32 - COLUMN_BITS)) - 1;
 
 
     Token(TokenType type, String lexeme, Object literal, int line){
+        this(type, lexeme, literal, line, 0);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int column){
 
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
-        this.line = line;
+        this.position = pack(line, column);
+
+    }
+
+    int position(){
+        return position;
+    }
+
+    int line(){
+        return line(position);
+    }
+
+    // 1-based; 0 if unknown
+    int column(){
+        return column(position);
+    }
+
+    // IncrementalCompiler keeps the trees of the statements an edit did not touch, and the trees point at their
+    // tokens, so when the edit adds or removes lines above them it moves their tokens by that many lines
+    void moveLines(int delta){
+        position = pack(line() + delta, column());
+    }
+
+    static int pack(int line, int column){
+        if (column > MAX_COLUMN) column = 0;
+        return Math.min(line, MAX_LINE) << COLUMN_BITS | column;
+    }
+
+    static int line(int position){
+        return position >>> COLUMN_BITS;
+    }
 
+    static int column(int position){
+        return position & MAX_COLUMN;
     }
 
     public String toString(){
@@ -0,0 +1,78 @@
+package lox;
+
+// the execution tracer of --trace: the interpreters write every statement they run and every call and return they
+// make into a ring buffer of the last SIZE events, and when the program dies of a runtime error (or of a Java error,
+// like a stack overflow) the last DUMPED of them are printed after the error, with their lines and source. an event
+// is its kind and its line, stored into two preallocated arrays, with no allocation and no lock (the interpreters
+// run on one thread) and no reference that would keep a node or a function alive. the flat encoding keeps no
+// statements, so with --flat the buffer only has calls and returns
+class Tracer {
+
+    static boolean active = false;
+
+    private static final int SIZE = 1024;
+    private static final int MASK = SIZE - 1;
+
+    // how many events the dump prints
+    private static final int DUMPED = 20;
+
+    private static final byte STATEMENT = 0;
+    private static final byte CALL = 1;
+    private static final byte RETURN = 2;
+
+    private static final String[] KINDS = {"statement", "call", "return"};
+
+    // the events, as parallel arrays; the next one goes at next & MASK
+    private static final byte[] kinds = new byte[SIZE];
+    private static final int[] lines = new int[SIZE];
+    private static long next = 0;
+
+    // the source the events are from, for printing their lines; set by Lox before each run and split when printed
+    private static String source = "";
+
+    // a block is not an event of its own, its statements are
+    static void statement(Stmt stmt){
+        if (stmt.kind != Stmt.Kind.BLOCK) record(STATEMENT, Lines.of(stmt));
+    }
+
+    // line is the call's, for the return too
+    static void call(int line){
+        record(CALL, line);
+    }
+
+    static void ret(int line){
+        record(RETURN, line);
+    }
+
+    private static void record(byte kind, int line){
+        int i = (int) (next++ & MASK);
+        kinds[i] = kind;
+        lines[i] = line;
+    }
+
+    static void setSource(String text){
+        source = text;
+    }
+
+    // the last events, oldest first; empty if there are none
+    static String dump(){
+
+        if (next == 0) return "";
+
+        long first = Math.max(0, next - Math.min(SIZE, DUMPED));
+        String[] text = source.split("\r?\n", -1);
+
+        StringBuilder out = new StringBuilder("last " + (next - first) + " events:" + System.lineSeparator());
+
+        for (long event = first; event < next; event++){
+            int i = (int) (event & MASK);
+            int line = lines[i];
+            String code = line > 0 && line <= text.length ? text[line - 1].trim() : "";
+            out.append(String.format("  %-10s %-12s %s%n", KINDS[kinds[i]], "[line " + line + "]", code));
+        }
+
+        return out.toString();
+
+    }
+
+}
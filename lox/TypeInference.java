@@ -0,0 +1,326 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// finds the arithmetic and comparison operators that can only ever see numbers, so that they can run without
+// checking their operands (see --optimize with --flat). every variable gets the set of types it may hold: the union
+// of the types of its initializer and of every value assigned to it anywhere in the program, whatever the order they
+// run in. parameters, fields and the results of calls may hold anything. the program is walked again until no
+// variable gains a type, then the last walk records the proven operators. this needs the whole program: a global
+// assigned by code that is not in statements (an earlier REPL line, say) would make the result wrong
+class TypeInference implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+
+    // types, as bits of a set
+    private static final int NUMBER = 1;
+    private static final int STRING = 2;
+    private static final int BOOLEAN = 4;
+    private static final int NIL = 8;
+    private static final int OTHER = 16;
+    private static final int ANY = NUMBER | STRING | BOOLEAN | NIL | OTHER;
+
+    // the types a variable may hold; globals by name, locals by the token that declares them
+    private static class Slot {
+        int types = 0;
+    }
+
+    private final Map<String, Slot> globals = new HashMap<>();
+    private final Map<Token, Slot> locals = new HashMap<>();
+    private final List<Map<String, Slot>> scopes = new ArrayList<>();
+
+    // whether the current walk widened any slot
+    private boolean changed;
+
+    // set for the last walk, which records what it proves
+    private boolean recording = false;
+
+    private final Set<Expr> proven = new HashSet<>();
+    private int sites = 0;
+
+    // the operators (Expr.Binary and Expr.Unary) that only ever see numbers
+    Set<Expr> infer(List<Stmt> statements){
+
+        do{
+            changed = false;
+            walk(statements);
+        } while (changed);
+
+        recording = true;
+        walk(statements);
+
+        return proven;
+
+    }
+
+    // what share of the arithmetic and comparison operators infer proved
+    String report(){
+        String share = sites == 0 ? "-" : String.format("%.1f%%", 100.0 * proven.size() / sites);
+        return "types: " + proven.size() + " of " + sites + " arithmetic sites proven numeric (" + share + ")";
+    }
+
+    private void walk(List<Stmt> statements){
+        for (Stmt statement : statements){
+            statement.accept(this);
+        }
+    }
+
+    private int type(Expr expr){
+        return expr.accept(this);
+    }
+
+    private void widen(Slot slot, int types){
+        if ((slot.types | types) == slot.types) return;
+        slot.types |= types;
+        changed = true;
+    }
+
+    // the slot of a new variable in the innermost scope (or a global)
+    private Slot declare(Token name){
+
+        if (scopes.isEmpty()) return globals.computeIfAbsent(name.lexeme, unused -> new Slot());
+
+        Slot slot = locals.computeIfAbsent(name, unused -> new Slot());
+        scopes.get(scopes.size() - 1).put(name.lexeme, slot);
+        return slot;
+
+    }
+
+    // the variable name refers to here, the way the Resolver finds it; null for a global that this program never
+    // declares, like a native
+    private Slot lookUp(Token name){
+
+        for (int i = scopes.size() - 1; i >= 0; i--){
+            Slot slot = scopes.get(i).get(name.lexeme);
+            if (slot != null) return slot;
+        }
+
+        return globals.get(name.lexeme);
+
+    }
+
+    private void beginScope(){
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope(){
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private void site(Expr operator, boolean numeric){
+        if (!recording) return;
+        sites++;
+        if (numeric) proven.add(operator);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr){
+
+        int types = type(expr.value);
+
+        Slot slot = lookUp(expr.name);
+        if (slot != null) widen(slot, types);
+
+        return types;
+
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr){
+
+        int left = type(expr.left);
+        int right = type(expr.right);
+        boolean numbers = left == NUMBER && right == NUMBER;
+
+        switch (expr.operator.type) {
+
+            case PLUS:
+                site(expr, numbers);
+                if (left == STRING && right == STRING) return STRING;
+                return numbers ? NUMBER : NUMBER | STRING;
+
+            case MINUS:
+            case STAR:
+            case SLASH:
+                site(expr, numbers);
+                return NUMBER;
+
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                site(expr, numbers);
+                return BOOLEAN;
+
+            default:
+                return BOOLEAN;
+
+        }
+
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr){
+        type(expr.callee);
+        for (Expr argument : expr.arguments){
+            type(argument);
+        }
+        return ANY;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr){
+        type(expr.object);
+        return ANY;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr){
+        return type(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr){
+        if (expr.value == null) return NIL;
+        if (expr.value instanceof Double) return NUMBER;
+        if (expr.value instanceof String) return STRING;
+        return BOOLEAN;
+    }
+
+    // "and" and "or" give one of their operands
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr){
+        return type(expr.left) | type(expr.right);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr){
+        type(expr.object);
+        return type(expr.value);
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr){
+        return OTHER;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr){
+        return OTHER;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr){
+
+        int operand = type(expr.right);
+
+        if (expr.operator.type == TokenType.BANG) return BOOLEAN;
+
+        site(expr, operand == NUMBER);
+        return NUMBER;
+
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr){
+        Slot slot = lookUp(expr.name);
+        return slot == null ? ANY : slot.types;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        beginScope();
+        walk(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+
+        widen(declare(stmt.name), OTHER);
+
+        if (stmt.superclass != null){
+            type(stmt.superclass);
+            beginScope();
+        }
+
+        beginScope();
+        for (Stmt.Function method : stmt.methods){
+            function(method);
+        }
+        endScope();
+
+        if (stmt.superclass != null) endScope();
+
+        return null;
+
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        widen(declare(stmt.name), OTHER);
+        function(stmt);
+        return null;
+    }
+
+    private void function(Stmt.Function function){
+
+        beginScope();
+
+        for (Token param : function.params){
+            widen(declare(param), ANY);
+        }
+
+        walk(function.body);
+        endScope();
+
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        type(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if (stmt.value != null) type(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+
+        // the initializer runs before the variable exists, so it sees the outer one
+        int types = stmt.initializer == null ? NIL : type(stmt.initializer);
+        widen(declare(stmt.name), types);
+        return null;
+
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        type(stmt.condition);
+        stmt.body.accept(this);
+        return null;
+    }
+
+}
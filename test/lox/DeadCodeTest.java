@@ -0,0 +1,105 @@
+package lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// what DeadCode removes and warns about: the program must print the same with and without it, and --warn must name
+// the variables it drops
+class DeadCodeTest {
+
+    private static final String WRITE_ONLY = String.join("\n",
+        "fun side(n){",
+        "  print n;",
+        "  return n;",
+        "}",
+        "fun f(a){",
+        "  var last = 0;",
+        "  var total = 0;",
+        "  var i = 0;",
+        "  while (i < a){",
+        "    last = side(i);",
+        "    total = total + i;",
+        "    i = i + 1;",
+        "  }",
+        "  var unused = 1;",
+        "  return total;",
+        "}",
+        "print f(3);",
+        "");
+
+    @Test
+    void writeOnlyLocalIsRemovedButItsSideEffectsStay(){
+
+        String plain = run(WRITE_ONLY, false);
+        String optimized = run(WRITE_ONLY, true);
+
+        assertEquals("0\n1\n2\n3\n", plain);
+        assertEquals(plain, optimized);
+
+    }
+
+    @Test
+    void warnNamesWriteOnlyAndUnusedLocals(){
+
+        String warnings = warnings(WRITE_ONLY);
+
+        assertTrue(warnings.contains("[line 6, column 7] Warning at 'last': Local variable 'last' is assigned but never read."), warnings);
+        assertTrue(warnings.contains("[line 14, column 7] Warning at 'unused': Local variable 'unused' is never used."), warnings);
+        assertEquals(2, warnings.lines().count(), warnings);
+
+    }
+
+    // what the program prints, with or without dead code elimination
+    private static String run(String source, boolean eliminate){
+
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = compile(source, interpreter);
+        if (eliminate) statements = new DeadCode(interpreter, false).eliminate(statements);
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+
+        try{
+            interpreter.interpret(statements);
+        }finally{
+            System.setOut(out);
+        }
+
+        return printed.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+
+    }
+
+    // the warnings eliminating the dead code of source prints
+    private static String warnings(String source){
+
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = compile(source, interpreter);
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(printed, true, StandardCharsets.UTF_8));
+
+        try{
+            new DeadCode(interpreter, true).eliminate(statements);
+        }finally{
+            System.setErr(err);
+        }
+
+        return printed.toString(StandardCharsets.UTF_8);
+
+    }
+
+    private static List<Stmt> compile(String source, Interpreter interpreter){
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(statements);
+        return statements;
+    }
+
+}
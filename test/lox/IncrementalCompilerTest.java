@@ -0,0 +1,63 @@
+package lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+// after an edit, IncrementalCompiler must report exactly the errors compiling the new source from scratch reports
+class IncrementalCompilerTest {
+
+    // an edit above an unterminated comment resumes the rescan after it; the comment must still be an error
+    @Test
+    void editAboveScanErrorKeepsIt(){
+        assertSameErrors("print 1;\nprint 2;\n/* open\n", "print 3;\nprint 2;\n/* open\n");
+        assertSameErrors("print 1;\nprint 2 @;\nprint 4;\n", "print 3;\nprint 2 @;\nprint 4;\n");
+    }
+
+    // the errors of a unit that lines were inserted above must move down with it
+    @Test
+    void errorsMoveWithTheirUnit(){
+        assertSameErrors("print 1;\nreturn 5;\n", "print 1;\n\n\nreturn 5;\n");
+    }
+
+    // a program that fails to parse is not resolved, so its resolver errors are not reported either
+    @Test
+    void noResolverErrorsWhileParsingFails(){
+        assertSameErrors("return 5;\nprint 1;\n", "return 5;\nprint 1 +;\n");
+    }
+
+    private static void assertSameErrors(String before, String after){
+
+        String expected = errors(() -> new IncrementalCompiler(new Interpreter()).compile(after));
+
+        IncrementalCompiler compiler = new IncrementalCompiler(new Interpreter());
+        errors(() -> compiler.compile(before));
+        String actual = errors(() -> compiler.update(after));
+
+        assertEquals(expected, actual);
+
+    }
+
+    // what run prints to standard error, with hadError appended
+    private static String errors(Runnable run){
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        Lox.hadError = false;
+
+        try{
+            run.run();
+        }finally{
+            System.setErr(err);
+        }
+
+        String errors = printed.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+        return errors + "hadError=" + Lox.hadError;
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// with --lazy, function bodies are only recognized at load time; that must report the syntax errors parsing them
+// would, before anything runs. a body ends at its matching brace while a full parse may recover past it, so only the
+// first error, the one that is not a consequence of recovering from another, must be the same
+class LazyBodyTest {
+
+    private static final String[] BROKEN = {
+        "fun f() { var a = 1; print a + * 2; }\nprint 1;\n",
+        "fun f(x) { (x) = 2; x.y = 3; x.m() = 4; }\n",
+        "fun f() { fun g() { return super; } g(; }\n",
+        "class C { m() { for (var i = 0; i < 3 i = i + 1) print i; } n() { if (a) print 1; else } }\n",
+        "fun f() { while (true { print 1; } }\n",
+        "fun f() { var = 1; print \"ok\"; return 1 }\n",
+    };
+
+    @Test
+    void lazyLoadReportsTheErrorsOfAFullParse(){
+        for (String source : BROKEN){
+
+            List<String> eager = errors(source, false);
+            List<String> lazy = errors(source, true);
+
+            assertTrue(!lazy.isEmpty(), source);
+            assertEquals(eager.get(0), lazy.get(0), source);
+
+        }
+    }
+
+    @Test
+    void validBodiesHaveNoErrors(){
+        String source = "fun f(a, b) { var c = a.x = b; for (;;) { if (!c) return -c; else c = c(1, 2).y; } }\n";
+        assertEquals(List.of(), errors(source, true));
+    }
+
+    private static List<String> errors(String source, boolean lazy){
+
+        List<Token> tokens = new Scanner(source).scanTokens();
+        List<String> errors = new ArrayList<>();
+        List<String> previous = Lox.deferErrors(errors);
+
+        try{
+            new Parser(tokens, 0, tokens.size() - 1, lazy, lazy).parse();
+        }finally{
+            Lox.restoreErrors(previous);
+        }
+
+        return errors;
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// ParallelScanner must give exactly the tokens Scanner gives: the same types, lexemes, literals, lines and columns.
+// the sources are generated from fixed seeds and are large enough to be cut into many chunks, with strings and
+// comments long enough that many of them straddle a chunk boundary
+class ParallelScannerTest {
+
+    // enough workers that the sources below are cut into a dozen chunks or more, whatever the machine
+    private static ForkJoinPool pool;
+
+    private static final String[] WORDS = {
+        "var", "fun", "class", "if", "else", "while", "for", "return", "print", "this", "super", "true", "false",
+        "nil", "and", "count", "index", "value", "Point", "_tmp", "x1", "width",
+        "(", ")", "{", "}", ",", ".", ";", "-", "+", "*", "/", "!", "!=", "=", "==", "<", "<=", ">", ">=",
+        "0", "7", "42", "1000000",
+    };
+
+    @BeforeAll
+    static void startPool(){
+        pool = new ForkJoinPool(8);
+    }
+
+    @AfterAll
+    static void stopPool(){
+        pool.shutdown();
+    }
+
+    @Test
+    void generatedSources(){
+        for (long seed = 1; seed <= 8; seed++){
+            assertSameTokens(generate(new Random(seed), 1_500_000), "seed " + seed);
+        }
+    }
+
+    // a string and a comment longer than a chunk, so boundaries fall inside both
+    @Test
+    void lexemesLongerThanAChunk(){
+
+        StringBuilder source = new StringBuilder("var a = \"");
+        for (int i = 0; i < 40_000; i++){
+            source.append("line ").append(i).append(" of a string with // and /* in it\n");
+        }
+        source.append("\";\n");
+
+        for (int i = 0; i < 40_000; i++){
+            source.append("// comment ").append(i).append(" with \" and \"\" in it\n");
+        }
+        source.append("print a;\n");
+
+        assertSameTokens(source.toString(), "long lexemes");
+
+    }
+
+    @Test
+    void crlfSource(){
+        assertSameTokens(generate(new Random(99), 1_000_000).replace("\n", "\r\n"), "crlf");
+    }
+
+    private static void assertSameTokens(String source, String what){
+
+        // ParallelScanner falls back to Scanner for a small source, which would make the test pass trivially
+        assertTrue(source.length() / (64 * 1024) >= 2, what + ": source too small to be split");
+
+        List<Token> expected = new Scanner(source).scanTokens();
+        List<Token> actual = new ParallelScanner(source, pool).scanTokens();
+
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++){
+            Token e = expected.get(i);
+            Token a = actual.get(i);
+            if (e.type != a.type || !e.lexeme.equals(a.lexeme) || !Objects.equals(e.literal, a.literal)
+                    || e.position() != a.position()){
+                fail(what + ": token " + i + " is " + describe(a) + ", expected " + describe(e));
+            }
+        }
+
+        assertEquals(expected.size(), actual.size(), what + ": token count");
+
+    }
+
+    private static String describe(Token token){
+        return token.type + " '" + token.lexeme + "' at " + token.line() + ":" + token.column();
+    }
+
+    // random lines of words, with strings (some over several lines), line comments and block comments mixed in
+    private static String generate(Random random, int length){
+
+        StringBuilder source = new StringBuilder(length + 1024);
+
+        while (source.length() < length){
+
+            int words = 1 + random.nextInt(12);
+            for (int i = 0; i < words; i++){
+                source.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(4) == 0 ? "" : " ");
+            }
+
+            switch (random.nextInt(8)) {
+                case 0 -> source.append('"').append(text(random, 1 + random.nextInt(200), true)).append("\" ");
+                case 1 -> source.append("// ").append(text(random, random.nextInt(120), false));
+                case 2 -> source.append("/* ").append(text(random, random.nextInt(300), true)).append(" */ ");
+                case 3 -> source.append("\"\" ");
+                default -> {}
+            }
+
+            source.append('\n');
+
+        }
+
+        return source.toString();
+
+    }
+
+    // text for a string or comment: letters, spaces, slashes, quotes only when allowed, and newlines when multiline
+    private static String text(Random random, int length, boolean multiline){
+
+        String alphabet = multiline ? "abc xyz/ /\n\n{};" : "abc xyz/ /\"{};*";
+
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++){
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+
+        return text.toString();
+
+    }
+
+}
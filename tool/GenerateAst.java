@@ -24,7 +24,7 @@ public class GenerateAst {
             "Call : Expr callee, Token paren, List<Expr> arguments",
             "Get : Expr object, Token name",
             "Grouping : Expr expression",
-            "Literal: Object value",
+            "Literal: Token token, Object value",
             "Logical: Expr left, Token operator, Expr right",
             "Set : Expr object, Token name, Expr value",
             "Super : Token keyword, Token method",
@@ -56,11 +56,15 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        // sealed: the nested classes below are the only subclasses, so the JIT and switches over kind can rely on that
+        writer.println("abstract sealed class " + baseName + " {");
 
         // visitor interface 
         defineVisitor(writer, baseName, types);
 
+        // node kind tag
+        defineKind(writer, baseName, types);
+
         // the subclasses
         for (String type: types){
 
@@ -83,10 +87,11 @@ public class GenerateAst {
     // creates the individual subclasses
     private static void defineType(PrintWriter writer, String baseName, String className, String fieldList){
 
-        writer.println(" static class " + className + " extends " + baseName + " {");
+        writer.println(" static final class " + className + " extends " + baseName + " {");
 
         //constructor
         writer.println("    " + className + "(" + fieldList + ") {");
+        writer.println("      super(Kind." + className.toUpperCase() + ");");
 
         //store parameters in fields 
         String[] fields = fieldList.split(", ");
@@ -116,6 +121,27 @@ public class GenerateAst {
         
     }
 
+    // creates the Kind enum (one constant per subclass) and the field holding it, so an interpreter can dispatch with
+    // an exhaustive switch on a field instead of a virtual accept() call
+    private static void defineKind(PrintWriter writer, String baseName, List<String> types){
+
+        writer.println("  enum Kind {");
+
+        for (int i = 0; i < types.size(); i++){
+            String typeName = types.get(i).split(":")[0].trim();
+            writer.println("    " + typeName.toUpperCase() + (i < types.size() - 1 ? "," : ""));
+        }
+
+        writer.println("  }");
+        writer.println();
+        writer.println("  final Kind kind;");
+        writer.println();
+        writer.println("  " + baseName + "(Kind kind) {");
+        writer.println("    this.kind = kind;");
+        writer.println("  }");
+
+    }
+
     // creates the Visitor interface
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types){
 